@@ -0,0 +1,188 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Runs every scoring kernel under {@link Mode#SampleTime} with the GC profiler, prints latency
+ * percentiles per kernel and {@code size}, and exits with status 1 if any kernel allocates: a
+ * {@code FloatVector} or {@code IntVector} that C2 failed to scalarize shows up here as bytes per
+ * op long before it shows up as a slowdown. The bytes per op that JMH and the profiler allocate
+ * themselves are measured in the same run, on {@link Baseline}, which allocates nothing, for
+ * about as long per op as the kernels take.
+ * <p>
+ * {@code java -cp target/vectorbench.jar testing.AllocationGuard [regex [sizes]]} where sizes
+ * are comma separated, and replace the benchmarks' own {@code size} params.
+ */
+public class AllocationGuard {
+
+  /**
+   * The kernels: the vectorized ones and their SWAR fallbacks, not the scalar baselines, some of
+   * which allocate on purpose. Left out:
+   * <ul>
+   *   <li>{@link TopKBenchmark}: returns a new array of ords per call, by design.
+   *   <li>{@link FilteredSearchBenchmark} and {@link SegmentedStoreBenchmark}: searches and ingest
+   *       made of the kernels guarded here, plus the arrays and segments they allocate.
+   *   <li>{@link LegacyCpuBenchmark}: the binary and bit count kernels again, on a JVM that
+   *       forces their scalar fallbacks.
+   *   <li>{@link ColdStartBenchmark}: measures the first call of each kernel in a fresh JVM,
+   *       class initialization included, under {@link Mode#SingleShotTime}.
+   * </ul>
+   */
+  static final String KERNELS = "testing\\.(Float|Binary|Mixed|Encoded)(DotProduct|Square|Cosine)Benchmark\\.\\w+(New|Swar)$"
+      + "|testing\\.BitCountBenchmark\\.\\w+(New|Swar)$"
+      + "|testing\\.(MaxSim|BitSet|FloatTransform)Benchmark\\.\\w+New$"
+      + "|testing\\.EarlyAbandonBenchmark\\.\\w+New$"
+      + "|testing\\.RotationBenchmark\\.\\w+New$"
+      + "|testing\\.BitPlaneBenchmark\\.\\w+New$";
+
+  static final String SIZES = "1,128,207,702,1024";
+
+  /**
+   * Replaces the {@code count} params, of the kernels that run over a batch of vectors, documents
+   * or bits: allocation and latency per call don't need large batches, and
+   * {@link FloatTransformBenchmark}'s million vectors don't fit in the heap at size=1024.
+   */
+  static final String COUNT = "1000";
+
+  static final String BASELINE = "testing\\.AllocationGuard\\.Baseline\\.spin$";
+
+  /**
+   * Highest allowed {@code gc.alloc.rate.norm}: {@link #MAX_BYTES_PER_OP}, plus {@link #SLACK}
+   * times what the {@link Baseline} shows at the kernel's mean time per op. A kernel that
+   * allocates nothing still shows JMH's and the profiler's own allocations spread over its ops,
+   * which grow with the time per op: tens of bytes at a few hundred microseconds. Any object is at
+   * least 16 bytes, and a vector that isn't scalarized more, so even one allocated once per call
+   * is over the limit.
+   */
+  static final double MAX_BYTES_PER_OP = 8;
+  static final double SLACK = 1.25;
+
+  /** Spins for {@code tokens} of {@link Blackhole#consumeCPU}, allocating nothing: from about a microsecond to about a millisecond. */
+  @State(Scope.Benchmark)
+  public static class Baseline {
+
+    @Param({"300", "3000", "30000", "100000", "300000"})
+    long tokens;
+
+    @Benchmark
+    public void spin() {
+      Blackhole.consumeCPU(tokens);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String regex = args.length > 0 ? args[0] : KERNELS;
+    String[] sizes = (args.length > 1 ? args[1] : SIZES).split(",");
+    Collection<RunResult> results = new Runner(new OptionsBuilder()
+        .include(regex)
+        .include(BASELINE)
+        .mode(Mode.SampleTime)
+        .timeUnit(TimeUnit.NANOSECONDS)
+        .addProfiler(GCProfiler.class)
+        .param("size", sizes)
+        .param("count", COUNT)
+        .warmupIterations(3)
+        .warmupTime(TimeValue.seconds(1))
+        .measurementIterations(3)
+        .measurementTime(TimeValue.seconds(1))
+        .forks(1)
+        .build()).run();
+
+    // JMH's own bytes per op, by mean ns per op
+    TreeMap<Double, Double> noise = new TreeMap<>();
+    for (RunResult result : results) {
+      if (isBaseline(result)) {
+        noise.put(result.getPrimaryResult().getStatistics().getMean(), bytesPerOp(result.getSecondaryResults()));
+      }
+    }
+
+    List<String> failures = new ArrayList<>();
+    if (noise.size() < 2 || noise.containsValue(Double.NaN)) {
+      failures.add("no baseline allocation profile: " + noise);
+    }
+    System.out.printf("%n%-58s %6s %10s %10s %10s %10s %9s%n", "kernel", "size", "p50 (ns)", "p99 (ns)", "p99.9 (ns)", "max (ns)", "B/op");
+    for (RunResult result : results) {
+      BenchmarkParams params = result.getParams();
+      Statistics latency = result.getPrimaryResult().getStatistics();
+      double bytesPerOp = bytesPerOp(result.getSecondaryResults());
+      String kernel = params.getBenchmark().substring("testing.".length());
+      // BitSetBenchmark has no size
+      String size = params.getParamsKeys().contains("size") ? params.getParam("size") : "-";
+      for (String key : params.getParamsKeys()) {
+        if (key.equals("size") == false && key.equals("data") == false) {
+          kernel += " " + key + "=" + params.getParam(key);
+        }
+      }
+      System.out.printf("%-58s %6s %10.1f %10.1f %10.1f %10.1f %9.3f%n", kernel, size,
+          latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax(), bytesPerOp);
+      double maxBytesPerOp = MAX_BYTES_PER_OP + SLACK * interpolate(noise, latency.getMean());
+      if (Double.isNaN(bytesPerOp)) {
+        failures.add(kernel + " size=" + size + ": no allocation profile");
+      } else if (bytesPerOp > maxBytesPerOp) {
+        failures.add(kernel + " size=" + size + ": " + bytesPerOp + " B/op");
+      }
+    }
+    if (results.stream().allMatch(AllocationGuard::isBaseline)) {
+      failures.add("no benchmarks matched " + regex);
+    }
+    if (failures.isEmpty() == false) {
+      System.out.println();
+      failures.forEach(failure -> System.out.println("ALLOCATES: " + failure));
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns the baseline's bytes per op at {@code nanos} per op: linear between the two baselines
+   * around it, extended beyond the slowest one, and the fastest one's below it.
+   */
+  static double interpolate(TreeMap<Double, Double> baseline, double nanos) {
+    if (baseline.size() < 2) {
+      return 0;
+    }
+    Map.Entry<Double, Double> lo = baseline.floorEntry(nanos);
+    if (lo == null) {
+      return baseline.firstEntry().getValue();
+    }
+    Map.Entry<Double, Double> hi = baseline.higherEntry(lo.getKey());
+    if (hi == null) {
+      hi = lo;
+      lo = baseline.lowerEntry(hi.getKey());
+    }
+    return lo.getValue() + (hi.getValue() - lo.getValue()) * (nanos - lo.getKey()) / (hi.getKey() - lo.getKey());
+  }
+
+  private static boolean isBaseline(RunResult result) {
+    return result.getParams().getBenchmark().matches(BASELINE);
+  }
+
+  /** Returns the GC profiler's normalized allocation rate, or NaN if it has none, e.g. on a JVM without the counters. */
+  private static double bytesPerOp(Map<String, Result> secondary) {
+    for (Map.Entry<String, Result> entry : secondary.entrySet()) {
+      if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+        return entry.getValue().getScore();
+      }
+    }
+    return Double.NaN;
+  }
+}
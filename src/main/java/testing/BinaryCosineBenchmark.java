@@ -23,8 +23,8 @@ import jdk.incubator.vector.Vector;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class BinaryCosineBenchmark {
 
-  private byte[] a;
-  private byte[] b;
+  byte[] a;
+  byte[] b;
 
   @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -32,23 +32,42 @@ public class BinaryCosineBenchmark {
   //@Param({"16", "32", "64"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .bvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new byte[size];
-    b = new byte[size];
-    ThreadLocalRandom.current().nextBytes(a);
-    ThreadLocalRandom.current().nextBytes(b);
-    if (cosineDistanceNew() != cosineDistanceOld()) {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.BVECS, size);
+    if (dataset == null) {
+      a = new byte[size];
+      b = new byte[size];
+      ThreadLocalRandom.current().nextBytes(a);
+      ThreadLocalRandom.current().nextBytes(b);
+    } else {
+      a = dataset.bytes(dataset.randomOrd());
+      b = dataset.bytes(dataset.randomOrd());
+    }
+    // compare() rather than !=, zero vectors (common in small dimensions of real data) give NaN
+    if (Float.compare(cosineDistanceNew(), cosineDistanceOld()) != 0) {
       throw new RuntimeException("New is wrong");
     }
+    if (Float.compare(cosineDistanceSwar(), cosineDistanceOld()) != 0) {
+      throw new RuntimeException("Swar is wrong");
+    }
   }
 
   static final VectorSpecies<Byte>  PREFERRED_BYTE_SPECIES;
   static final VectorSpecies<Short> PREFERRED_SHORT_SPECIES;
   static {
-    if (IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256) {
-      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 2));
-      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 1));
+    if (VectorShapes.INT.vectorBitSize() >= 256) {
+      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 2));
+      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 1));
     } else {
       PREFERRED_BYTE_SPECIES = null;
       PREFERRED_SHORT_SPECIES = null;
@@ -64,15 +83,15 @@ public class BinaryCosineBenchmark {
     int sum = 0;
     int norm1 = 0;
     int norm2 = 0;
-    final int vectorSize = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
     // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
     if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
       if (vectorSize >= 256) {
         // optimized 256/512 bit implementation, processes 8/16 bytes at a time
         int upperBound = PREFERRED_BYTE_SPECIES.loopBound(a.length);
-        IntVector accSum = IntVector.zero(IntVector.SPECIES_PREFERRED);
-        IntVector accNorm1 = IntVector.zero(IntVector.SPECIES_PREFERRED);
-        IntVector accNorm2 = IntVector.zero(IntVector.SPECIES_PREFERRED);
+        IntVector accSum = IntVector.zero(VectorShapes.INT);
+        IntVector accNorm1 = IntVector.zero(VectorShapes.INT);
+        IntVector accNorm2 = IntVector.zero(VectorShapes.INT);
         for (; i < upperBound; i += PREFERRED_BYTE_SPECIES.length()) {
           ByteVector va8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, a, i);
           ByteVector vb8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, b, i);
@@ -81,9 +100,9 @@ public class BinaryCosineBenchmark {
           Vector<Short> prod16 = va16.mul(vb16);
           Vector<Short> norm1_16 = va16.mul(va16);
           Vector<Short> norm2_16 = vb16.mul(vb16);
-          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
-          Vector<Integer> norm1_32 = norm1_16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
-          Vector<Integer> norm2_32 = norm2_16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
+          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
+          Vector<Integer> norm1_32 = norm1_16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
+          Vector<Integer> norm2_32 = norm2_16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
           accSum = accSum.add(prod32);
           accNorm1 = accNorm1.add(norm1_32);
           accNorm2 = accNorm2.add(norm2_32);
@@ -133,11 +152,19 @@ public class BinaryCosineBenchmark {
 
   @Benchmark
   public float cosineDistanceNew() {
+    return cosine(a, b);
+  }
+
+  /**
+   * Returns the cosine similarity of {@code a} and {@code b}: the kernel of
+   * {@link #cosineDistanceNew()}, which {@code PanamaVectorUtilSupport} runs too.
+   */
+  static float cosine(byte[] a, byte[] b) {
     int i = 0;
     int sum = 0;
     int norm1 = 0;
     int norm2 = 0;
-    final int vectorSize = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
     // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
     if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
       // acts like:
@@ -149,9 +176,9 @@ public class BinaryCosineBenchmark {
       if (vectorSize >= 256) {
         // optimized 256/512 bit implementation, processes 8/16 bytes at a time
         int upperBound = PREFERRED_BYTE_SPECIES.loopBound(a.length);
-        IntVector accSum = IntVector.zero(IntVector.SPECIES_PREFERRED);
-        IntVector accNorm1 = IntVector.zero(IntVector.SPECIES_PREFERRED);
-        IntVector accNorm2 = IntVector.zero(IntVector.SPECIES_PREFERRED);
+        IntVector accSum = IntVector.zero(VectorShapes.INT);
+        IntVector accNorm1 = IntVector.zero(VectorShapes.INT);
+        IntVector accNorm2 = IntVector.zero(VectorShapes.INT);
         for (; i < upperBound; i += PREFERRED_BYTE_SPECIES.length()) {
           ByteVector va8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, a, i);
           ByteVector vb8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, b, i);
@@ -160,9 +187,9 @@ public class BinaryCosineBenchmark {
           Vector<Short> prod16 = va16.mul(vb16);
           Vector<Short> norm1_16 = va16.mul(va16);
           Vector<Short> norm2_16 = vb16.mul(vb16);
-          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
-          Vector<Integer> norm1_32 = norm1_16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
-          Vector<Integer> norm2_32 = norm2_16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
+          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
+          Vector<Integer> norm1_32 = norm1_16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
+          Vector<Integer> norm2_32 = norm2_16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
           accSum = accSum.add(prod32);
           accNorm1 = accNorm1.add(norm1_32);
           accNorm2 = accNorm2.add(norm2_32);
@@ -220,15 +247,36 @@ public class BinaryCosineBenchmark {
     return (float) (sum / Math.sqrt((double) norm1 * (double) norm2));
   }
 
-  /** Returns the cosine similarity between the two vectors. */
   @Benchmark
-  public float cosineDistanceOld() {
-    // Note: this will not overflow if dim < 2^18, since max(byte * byte) = 2^14.
-    int sum = 0;
-    int norm1 = 0;
-    int norm2 = 0;
+  public float cosineDistanceSwar() {
+    return swarCosineDistance(a, b);
+  }
+
+  /** Returns the cosine similarity between the two vectors, 8 bytes at a time: see {@link Swar}. */
+  static float swarCosineDistance(byte[] a, byte[] b) {
+    int i = 0;
+    int upperBound = a.length & ~7;
+    long products = 0;
+    long squares1 = 0;
+    long squares2 = 0;
+    long sum1 = 0;
+    long sum2 = 0;
+    for (; i < upperBound; i += 8) {
+      long ua = Swar.unsigned(a, i);
+      long ub = Swar.unsigned(b, i);
+      long ubSwapped = Swar.swapped(ub);
+      products += Swar.products(ua, ubSwapped);
+      squares1 += Swar.products(ua, Swar.swapped(ua));
+      squares2 += Swar.products(ub, ubSwapped);
+      sum1 += Swar.sumBytes(ua);
+      sum2 += Swar.sumBytes(ub);
+    }
+    // undo the offset: a * b = (ua - 128) * (ub - 128) = ua * ub - 128 * (ua + ub) + 16384
+    int sum = (int) (products - 128 * (sum1 + sum2) + 16384L * upperBound);
+    int norm1 = (int) (squares1 - 256 * sum1 + 16384L * upperBound);
+    int norm2 = (int) (squares2 - 256 * sum2 + 16384L * upperBound);
 
-    for (int i = 0; i < a.length; i++) {
+    for (; i < a.length; i++) {
       byte elem1 = a[i];
       byte elem2 = b[i];
       sum += elem1 * elem2;
@@ -237,4 +285,10 @@ public class BinaryCosineBenchmark {
     }
     return (float) (sum / Math.sqrt((double) norm1 * (double) norm2));
   }
+
+  /** Returns the cosine similarity between the two vectors. */
+  @Benchmark
+  public float cosineDistanceOld() {
+    return DefaultVectorUtilSupport.scalarCosine(a, b);
+  }
 }
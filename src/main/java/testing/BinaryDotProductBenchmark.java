@@ -23,8 +23,8 @@ import jdk.incubator.vector.Vector;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class BinaryDotProductBenchmark {
 
-  private byte[] a;
-  private byte[] b;
+  byte[] a;
+  byte[] b;
 
   //@Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -32,26 +32,44 @@ public class BinaryDotProductBenchmark {
   //@Param({"16", "32", "64"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .bvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
   private static final boolean IS_AMD64_WITHOUT_AVX2 =
       System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
 
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new byte[size];
-    b = new byte[size];
-    ThreadLocalRandom.current().nextBytes(a);
-    ThreadLocalRandom.current().nextBytes(b);
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.BVECS, size);
+    if (dataset == null) {
+      a = new byte[size];
+      b = new byte[size];
+      ThreadLocalRandom.current().nextBytes(a);
+      ThreadLocalRandom.current().nextBytes(b);
+    } else {
+      a = dataset.bytes(dataset.randomOrd());
+      b = dataset.bytes(dataset.randomOrd());
+    }
     if (dotProductNew() != dotProductOld()) {
       throw new RuntimeException("New is wrong");
     }
+    if (dotProductSwar() != dotProductOld()) {
+      throw new RuntimeException("Swar is wrong");
+    }
   }
 
   static final VectorSpecies<Byte>  PREFERRED_BYTE_SPECIES;
   static final VectorSpecies<Short> PREFERRED_SHORT_SPECIES;
   static {
-    if (IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256) {
-      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 2));
-      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 1));
+    if (VectorShapes.INT.vectorBitSize() >= 256) {
+      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 2));
+      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 1));
     } else {
       PREFERRED_BYTE_SPECIES = null;
       PREFERRED_SHORT_SPECIES = null;
@@ -62,7 +80,7 @@ public class BinaryDotProductBenchmark {
   public int dotProductNewNew() {
     int i = 0;
     int res = 0;
-    final int vectorSize = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
     // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
     if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
       // compute vectorized dot product consistent with VPDPBUSD instruction, acts like:
@@ -74,14 +92,14 @@ public class BinaryDotProductBenchmark {
       if (vectorSize >= 256) {
         // optimized 256/512 bit implementation, processes 8/16 bytes at a time
         int upperBound = PREFERRED_BYTE_SPECIES.loopBound(a.length);
-        IntVector acc = IntVector.zero(IntVector.SPECIES_PREFERRED);
+        IntVector acc = IntVector.zero(VectorShapes.INT);
         for (; i < upperBound; i += PREFERRED_BYTE_SPECIES.length()) {
           ByteVector va8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, a, i);
           ByteVector vb8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, b, i);
           Vector<Short> va16 = va8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> vb16 = vb8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> prod16 = va16.mul(vb16);
-          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
+          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
           acc = acc.add(prod32);
         }
         // reduce
@@ -116,9 +134,17 @@ public class BinaryDotProductBenchmark {
 
   @Benchmark
   public int dotProductNew() {
+    return dotProduct(a, b);
+  }
+
+  /**
+   * Returns the dot product of {@code a} and {@code b}: the kernel of
+   * {@link #dotProductNew()}, which {@code PanamaVectorUtilSupport} runs too.
+   */
+  static int dotProduct(byte[] a, byte[] b) {
     int i = 0;
     int res = 0;
-    final int vectorSize = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
     // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
     if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
       // compute vectorized dot product consistent with VPDPBUSD instruction, acts like:
@@ -130,14 +156,14 @@ public class BinaryDotProductBenchmark {
       if (vectorSize >= 256) {
         // optimized 256/512 bit implementation, processes 8/16 bytes at a time
         int upperBound = PREFERRED_BYTE_SPECIES.loopBound(a.length);
-        IntVector acc = IntVector.zero(IntVector.SPECIES_PREFERRED);
+        IntVector acc = IntVector.zero(VectorShapes.INT);
         for (; i < upperBound; i += PREFERRED_BYTE_SPECIES.length()) {
           ByteVector va8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, a, i);
           ByteVector vb8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, b, i);
           Vector<Short> va16 = va8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> vb16 = vb8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> prod16 = va16.mul(vb16);
-          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
+          Vector<Integer> prod32 = prod16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
           acc = acc.add(prod32);
         }
         // reduce
@@ -171,6 +197,32 @@ public class BinaryDotProductBenchmark {
     return res;
   }
 
+  @Benchmark
+  public int dotProductSwar() {
+    return swarDotProduct(a, b);
+  }
+
+  /** Dot product computed over signed bytes, 8 at a time: see {@link Swar}. */
+  static int swarDotProduct(byte[] a, byte[] b) {
+    int i = 0;
+    int upperBound = a.length & ~7;
+    long products = 0;
+    long sums = 0;
+    for (; i < upperBound; i += 8) {
+      long ua = Swar.unsigned(a, i);
+      long ub = Swar.unsigned(b, i);
+      products += Swar.products(ua, Swar.swapped(ub));
+      sums += Swar.sumBytes(ua) + Swar.sumBytes(ub);
+    }
+    // undo the offset: a * b = (ua - 128) * (ub - 128) = ua * ub - 128 * (ua + ub) + 16384
+    int res = (int) (products - 128 * sums + 16384L * upperBound);
+
+    for (; i < a.length; i++) {
+      res += b[i] * a[i];
+    }
+    return res;
+  }
+
   /**
    * Dot product computed over signed bytes.
    *
@@ -180,11 +232,6 @@ public class BinaryDotProductBenchmark {
    */
   @Benchmark
   public int dotProductOld() {
-    assert a.length == b.length;
-    int total = 0;
-    for (int i = 0; i < a.length; i++) {
-      total += a[i] * b[i];
-    }
-    return total;
+    return DefaultVectorUtilSupport.scalarDotProduct(a, b);
   }
 }
@@ -23,8 +23,8 @@ import jdk.incubator.vector.Vector;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class BinarySquareBenchmark {
 
-  private byte[] a;
-  private byte[] b;
+  byte[] a;
+  byte[] b;
 
   @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -32,15 +32,33 @@ public class BinarySquareBenchmark {
   //@Param({"16", "32", "64"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .bvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new byte[size];
-    b = new byte[size];
-    ThreadLocalRandom.current().nextBytes(a);
-    ThreadLocalRandom.current().nextBytes(b);
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.BVECS, size);
+    if (dataset == null) {
+      a = new byte[size];
+      b = new byte[size];
+      ThreadLocalRandom.current().nextBytes(a);
+      ThreadLocalRandom.current().nextBytes(b);
+    } else {
+      a = dataset.bytes(dataset.randomOrd());
+      b = dataset.bytes(dataset.randomOrd());
+    }
     if (squareDistanceNew() != squareDistanceOld()) {
       throw new RuntimeException("New is wrong");
     }
+    if (squareDistanceSwar() != squareDistanceOld()) {
+      throw new RuntimeException("Swar is wrong");
+    }
   }
 
   private static final boolean IS_AMD64_WITHOUT_AVX2 =
@@ -49,9 +67,9 @@ public class BinarySquareBenchmark {
   static final VectorSpecies<Byte>  PREFERRED_BYTE_SPECIES;
   static final VectorSpecies<Short> PREFERRED_SHORT_SPECIES;
   static {
-    if (IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256) {
-      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 2));
-      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(IntVector.SPECIES_PREFERRED.vectorBitSize() >> 1));
+    if (VectorShapes.INT.vectorBitSize() >= 256) {
+      PREFERRED_BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 2));
+      PREFERRED_SHORT_SPECIES = ShortVector.SPECIES_MAX.withShape(VectorShape.forBitSize(VectorShapes.INT.vectorBitSize() >> 1));
     } else {
       PREFERRED_BYTE_SPECIES = null;
       PREFERRED_SHORT_SPECIES = null;
@@ -60,9 +78,17 @@ public class BinarySquareBenchmark {
 
   @Benchmark
   public int squareDistanceNew() {
+    return squareDistance(a, b);
+  }
+
+  /**
+   * Returns the square distance of {@code a} and {@code b}: the kernel of
+   * {@link #squareDistanceNew()}, which {@code PanamaVectorUtilSupport} runs too.
+   */
+  static int squareDistance(byte[] a, byte[] b) {
     int i = 0;
     int res = 0;
-    final int vectorSize = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
     // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
     if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
       // acts like:
@@ -74,14 +100,14 @@ public class BinarySquareBenchmark {
       if (vectorSize >= 256) {
         // optimized 256/512 bit implementation, processes 8/16 bytes at a time
         int upperBound = PREFERRED_BYTE_SPECIES.loopBound(a.length);
-        IntVector acc = IntVector.zero(IntVector.SPECIES_PREFERRED);
+        IntVector acc = IntVector.zero(VectorShapes.INT);
         for (; i < upperBound; i += PREFERRED_BYTE_SPECIES.length()) {
           ByteVector va8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, a, i);
           ByteVector vb8 = ByteVector.fromArray(PREFERRED_BYTE_SPECIES, b, i);
           Vector<Short> va16 = va8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> vb16 = vb8.convertShape(VectorOperators.B2S, PREFERRED_SHORT_SPECIES, 0);
           Vector<Short> diff16 = va16.sub(vb16);
-          Vector<Integer> diff32 = diff16.convertShape(VectorOperators.S2I, IntVector.SPECIES_PREFERRED, 0);
+          Vector<Integer> diff32 = diff16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
           acc = acc.add(diff32.mul(diff32));
         }
         // reduce
@@ -116,15 +142,32 @@ public class BinarySquareBenchmark {
     return res;
   }
 
-  /** Returns the sum of squared differences of the two vectors. */
   @Benchmark
-  public int squareDistanceOld() {
-    // Note: this will not overflow if dim < 2^18, since max(byte * byte) = 2^14.
-    int squareSum = 0;
-    for (int i = 0; i < a.length; i++) {
+  public int squareDistanceSwar() {
+    return swarSquareDistance(a, b);
+  }
+
+  /** Returns the sum of squared differences of the two vectors, 8 bytes at a time: see {@link Swar}. */
+  static int swarSquareDistance(byte[] a, byte[] b) {
+    int i = 0;
+    int upperBound = a.length & ~7;
+    long squareSum = 0;
+    for (; i < upperBound; i += 8) {
+      // the offset cancels out of the differences
+      squareSum += Swar.squareDistance(Swar.unsigned(a, i), Swar.unsigned(b, i));
+    }
+    int res = (int) squareSum;
+
+    for (; i < a.length; i++) {
       int diff = a[i] - b[i];
-      squareSum += diff * diff;
+      res += diff * diff;
     }
-    return squareSum;
+    return res;
+  }
+
+  /** Returns the sum of squared differences of the two vectors. */
+  @Benchmark
+  public int squareDistanceOld() {
+    return DefaultVectorUtilSupport.scalarSquareDistance(a, b);
   }
 }
@@ -7,6 +7,7 @@ import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
+import jdk.incubator.vector.IntVector;
 import jdk.incubator.vector.LongVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
@@ -21,16 +22,44 @@ import jdk.incubator.vector.Vector;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class BitCountBenchmark {
 
-  private long[] longs;
+  long[] longs;
 
   @Param({"1024"})
   int size;
 
+  /**
+   * {@code random}, {@code clustered}, or the path of a 64 dimensional .fvecs file: see {@link Dataset#forBenchmark}.
+   * Each vector's signs are packed into one long.
+   */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
+    VectorShapes.check(bits);
     longs = new long[size];
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, Long.SIZE);
     for (int i = 0; i < size; i++) {
-      longs[i] = ThreadLocalRandom.current().nextLong();
+      if (dataset == null) {
+        longs[i] = ThreadLocalRandom.current().nextLong();
+      } else {
+        float[] vector = dataset.floats(i % dataset.count());
+        for (int j = 0; j < vector.length; j++) {
+          if (vector[j] > 0) {
+            longs[i] |= 1L << j;
+          }
+        }
+      }
+    }
+    if (bitCountNew() != bitCountOld()) {
+      throw new RuntimeException("New is wrong");
+    }
+    if (bitCountSwar() != bitCountOld()) {
+      throw new RuntimeException("Swar is wrong");
     }
   }
 
@@ -43,12 +72,23 @@ public class BitCountBenchmark {
     return sum;
   }
 
-  static final VectorSpecies<Long> PREFERRED_LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Long> PREFERRED_LONG_SPECIES = VectorShapes.LONG;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
 
   @Benchmark
   public int bitCountNew() {
     int i = 0;
     int res = 0;
+    // without usable vector support, BIT_COUNT isn't intrinsified: Long.bitCount is still a popcnt
+    // instruction on any x86 with AVX, see bitCountSwar() for hardware without one
+    if (PREFERRED_LONG_SPECIES.vectorBitSize() < 128 || IS_AMD64_WITHOUT_AVX2) {
+      for (; i < longs.length; i++) {
+        res += Long.bitCount(longs[i]);
+      }
+      return res;
+    }
     int upperBound = PREFERRED_LONG_SPECIES.loopBound(longs.length);
     LongVector acc = LongVector.zero(PREFERRED_LONG_SPECIES);
     for (; i < upperBound; i += PREFERRED_LONG_SPECIES.length()) {
@@ -62,4 +102,29 @@ public class BitCountBenchmark {
     }
     return res;
   }
+
+  @Benchmark
+  public int bitCountSwar() {
+    return swarBitCount(longs);
+  }
+
+  /**
+   * Bit count for hardware without a popcount instruction, where {@link Long#bitCount} does a
+   * horizontal sum per word: here per-byte counts of several words are added up
+   * in their byte lanes before a single horizontal sum, see {@link Swar}.
+   */
+  static int swarBitCount(long[] longs) {
+    int i = 0;
+    int res = 0;
+    while (i < longs.length) {
+      // a byte lane gains at most 8 per word, so 31 words can't overflow it
+      int end = Math.min(longs.length, i + 31);
+      long acc = 0;
+      for (; i < end; i++) {
+        acc += Swar.byteBitCounts(longs[i]);
+      }
+      res += (int) Swar.sumBytes(acc);
+    }
+    return res;
+  }
 }
@@ -0,0 +1,444 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Asymmetric scoring of 1-bit document codes: the document keeps one sign bit per dimension, but
+ * the query is quantized to 4 bits, {@code x_j ~ lo + delta * q_j}, and stored as four bit-planes,
+ * plane {@code b} holding bit {@code b} of every {@code q_j}. Then {@code sum(q_j * d_j)} over the
+ * document's bits {@code d_j} is {@code sum(2^b * popcount(plane_b & doc))}: four AND+BIT_COUNT
+ * passes of {@link BitCountBenchmark#bitCountNew()}'s loop, from which
+ * {@link #estimate} recovers the dot product of the query with the document's signs.
+ * <p>
+ * The bulk kernels score one query against {@code count} documents stored one after the other.
+ * Documents of fewer words than a vector has lanes would leave the vector loop idle, so the bulk
+ * kernels run over all documents' words as one stream, against the planes repeated to a period
+ * of whole vectors and whole documents, and sum each document's lanes afterwards.
+ * <p>
+ * Setup prints the recall@10 against float dot products on the clustered dataset of: Hamming
+ * distance between sign codes, the 4-bit query against sign codes, and int8 dot products, which
+ * need 8 times the memory per document. Sign codes are of vectors centered on the corpus' mean
+ * {@code c}, and carry the mean absolute value of the centered document as a scale: since
+ * {@code q.d = (q - c).(d - c) + c.d} up to terms of the query alone, they're scored plus a
+ * stored {@code c.d}. Hamming scores are scaled by the query's mean {@code |q - c|} too, or
+ * {@code c.d} would outweigh them. The int8 codes carry a per-vector scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class BitPlaneBenchmark {
+
+  static final int PLANES = 4;
+  static final int QUERIES = 100;
+  static final int K = 10;
+
+  int words;
+  /** Sign codes, {@link #words} per document. */
+  long[] docs;
+  /** The query's 4 planes, {@link #words} each. */
+  long[] planes;
+  /** The planes, repeated to {@link #period} longs each. */
+  long[] expanded;
+  int period;
+  /** The query's sign code. */
+  long[] querySigns;
+  long[] expandedSigns;
+  /** Scratch of the bulk kernels, {@link #period} longs. */
+  long[] counts;
+  int[] scores;
+  byte[] query8;
+  byte[][] docs8;
+  BinaryDotProductBenchmark bytes;
+
+  @Param({"128", "768", "1024"})
+  int size;
+
+  /** Number of documents of the bulk kernels. */
+  @Param({"10000"})
+  int count;
+
+  /** {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"clustered"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      throw new IllegalArgumentException("recall needs a dataset, not " + data);
+    }
+    words = FloatTransformBenchmark.words(size);
+    period = period(words);
+    docs = new long[count * words];
+    docs8 = new byte[count][size];
+    for (int i = 0; i < count; i++) {
+      float[] v = dataset.floats(i % dataset.count());
+      signs(v, docs, i * words);
+      MixedDotProductBenchmark.quantize(v, docs8[i]);
+    }
+    float[] q = dataset.floats(dataset.randomOrd());
+    planes = new long[PLANES * words];
+    quantize4(q, planes);
+    expanded = expand(planes, words, PLANES, period);
+    querySigns = new long[words];
+    signs(q, querySigns, 0);
+    expandedSigns = expand(querySigns, words, 1, period);
+    query8 = new byte[size];
+    MixedDotProductBenchmark.quantize(q, query8);
+    counts = new long[period];
+    scores = new int[count];
+    bytes = new BinaryDotProductBenchmark();
+    bytes.a = query8;
+
+    if (bitPlanePairNew() != bitPlanePairOld()) {
+      throw new RuntimeException("New is wrong");
+    }
+    bitPlaneBulkOld();
+    int[] expected = scores.clone();
+    bitPlaneBulkNew();
+    if (Arrays.equals(expected, scores) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+    for (int i = 0; i < count; i++) {
+      expected[i] = hamming(querySigns, docs, i * words, words);
+    }
+    hammingBulkNew();
+    if (Arrays.equals(expected, scores) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+
+    recall(dataset);
+  }
+
+  /** Longs per plane repeated for the bulk kernels: a whole number of documents, and of vectors. */
+  static int period(int words) {
+    int lanes = VectorShapes.LONG.length();
+    int gcd = words;
+    for (int r = lanes; r != 0; ) {
+      int t = gcd % r;
+      gcd = r;
+      r = t;
+    }
+    return words / gcd * lanes;
+  }
+
+  /** Returns {@code planes} {@code words}-long arrays, each repeated to {@code period} longs. */
+  static long[] expand(long[] src, int words, int planes, int period) {
+    long[] dest = new long[planes * period];
+    for (int b = 0; b < planes; b++) {
+      for (int i = 0; i < period; i++) {
+        dest[b * period + i] = src[b * words + i % words];
+      }
+    }
+    return dest;
+  }
+
+  /** Packs the signs of {@code v}, 1 if positive, into {@code dest} from {@code offset}. */
+  static void signs(float[] v, long[] dest, int offset) {
+    for (int j = 0; j < v.length; j++) {
+      if (v[j] > 0) {
+        dest[offset + (j >>> 6)] |= 1L << j;
+      }
+    }
+  }
+
+  /**
+   * Quantizes {@code v} to 4 bits, {@code v_j ~ lo + delta * q_j}, into the bit-planes of
+   * {@code planes}, and returns {@code {lo, delta}}.
+   */
+  static float[] quantize4(float[] v, long[] planes) {
+    int words = planes.length / PLANES;
+    float lo = Float.POSITIVE_INFINITY;
+    float hi = Float.NEGATIVE_INFINITY;
+    for (float x : v) {
+      lo = Math.min(lo, x);
+      hi = Math.max(hi, x);
+    }
+    float delta = hi > lo ? (hi - lo) / 15 : 1;
+    Arrays.fill(planes, 0L);
+    for (int j = 0; j < v.length; j++) {
+      int q = Math.round((v[j] - lo) / delta);
+      for (int b = 0; b < PLANES; b++) {
+        if ((q & (1 << b)) != 0) {
+          planes[b * words + (j >>> 6)] |= 1L << j;
+        }
+      }
+    }
+    return new float[] { lo, delta };
+  }
+
+  /**
+   * Estimates the dot product of the query with a document's signs, from the kernels' weighted
+   * count {@code s}: with {@code d_j} in {0, 1} standing for -1 and 1, it's
+   * {@code sum((lo + delta * q_j) * (2 * d_j - 1))}.
+   */
+  static float estimate(int s, float lo, float delta, int querySum, int docBits, int dimension) {
+    return 2 * delta * s - delta * querySum + lo * (2 * docBits - dimension);
+  }
+
+  private void recall(Dataset dataset) {
+    Random random = new Random(size);
+    int n = dataset.count();
+    float[][] vectors = new float[n][];
+    long[] signCodes = new long[n * words];
+    float[] signScales = new float[n];
+    int[] docBits = new int[n];
+    byte[][] codes8 = new byte[n][size];
+    float[] scales8 = new float[n];
+    float[] centroid = new float[size];
+    for (int i = 0; i < n; i++) {
+      vectors[i] = dataset.floats(i);
+      for (int j = 0; j < size; j++) {
+        centroid[j] += vectors[i][j] / n;
+      }
+    }
+    float[] centered = new float[size];
+    float[] centroidDots = new float[n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < size; j++) {
+        centered[j] = vectors[i][j] - centroid[j];
+      }
+      centroidDots[i] = FloatDotProductBenchmark.dotProduct(centroid, vectors[i], 0);
+      signs(centered, signCodes, i * words);
+      float abs = 0;
+      for (float x : centered) {
+        abs += Math.abs(x);
+      }
+      signScales[i] = abs / size;
+      for (int w = 0; w < words; w++) {
+        docBits[i] += Long.bitCount(signCodes[i * words + w]);
+      }
+      scales8[i] = MixedDotProductBenchmark.quantize(vectors[i], codes8[i]);
+    }
+    BinaryDotProductBenchmark int8 = new BinaryDotProductBenchmark();
+    long[] queryPlanes = new long[PLANES * words];
+    long[] querySignCode = new long[words];
+    int8.a = new byte[size];
+    float[] exact = new float[n];
+    float[] hammingScores = new float[n];
+    float[] bitPlaneScores = new float[n];
+    float[] int8Scores = new float[n];
+    double[] recalls = new double[3];
+    for (int iter = 0; iter < QUERIES; iter++) {
+      float[] query = vectors[random.nextInt(n)].clone();
+      for (int j = 0; j < size; j++) {
+        query[j] += (float) random.nextGaussian() * 0.25f;
+      }
+      for (int j = 0; j < size; j++) {
+        centered[j] = query[j] - centroid[j];
+      }
+      float[] loDelta = quantize4(centered, queryPlanes);
+      float queryScale = 0;
+      for (float x : centered) {
+        queryScale += Math.abs(x);
+      }
+      queryScale /= size;
+      int querySum = 0;
+      for (int b = 0; b < PLANES; b++) {
+        for (int w = 0; w < words; w++) {
+          querySum += Long.bitCount(queryPlanes[b * words + w]) << b;
+        }
+      }
+      Arrays.fill(querySignCode, 0L);
+      signs(centered, querySignCode, 0);
+      MixedDotProductBenchmark.quantize(query, int8.a);
+      for (int i = 0; i < n; i++) {
+        exact[i] = FloatDotProductBenchmark.dotProduct(query, vectors[i], 0);
+        hammingScores[i] = signScales[i] * queryScale * (size - 2 * hamming(querySignCode, signCodes, i * words, words)) + centroidDots[i];
+        int s = bitPlane(queryPlanes, signCodes, i * words, words);
+        bitPlaneScores[i] = signScales[i] * estimate(s, loDelta[0], loDelta[1], querySum, docBits[i], size) + centroidDots[i];
+        int8.b = codes8[i];
+        int8Scores[i] = int8.dotProductNew() * scales8[i];
+      }
+      int[] truth = TopKBenchmark.topFloats(exact, K);
+      float[][] approximate = { hammingScores, bitPlaneScores, int8Scores };
+      for (int m = 0; m < approximate.length; m++) {
+        for (int ord : TopKBenchmark.topFloats(approximate[m], K)) {
+          for (int t : truth) {
+            if (ord == t) {
+              recalls[m]++;
+            }
+          }
+        }
+      }
+    }
+    System.out.printf("%nrecall@%d: hamming %.3f, 4-bit query %.3f, int8 %.3f (size=%d)%n", K,
+        recalls[0] / (QUERIES * K), recalls[1] / (QUERIES * K), recalls[2] / (QUERIES * K), size);
+  }
+
+  /** Hamming distance between {@code a} and the {@code words} longs of {@code b} from {@code offset}. */
+  static int hamming(long[] a, long[] b, int offset, int words) {
+    int res = 0;
+    for (int w = 0; w < words; w++) {
+      res += Long.bitCount(a[w] ^ b[offset + w]);
+    }
+    return res;
+  }
+
+  /** {@code sum(2^b * popcount(plane_b & doc))} over the document of {@code words} longs at {@code offset} of {@code docs}. */
+  static int bitPlane(long[] planes, long[] docs, int offset, int words) {
+    int res = 0;
+    for (int w = 0; w < words; w++) {
+      long d = docs[offset + w];
+      res += Long.bitCount(planes[w] & d)
+          + (Long.bitCount(planes[words + w] & d) << 1)
+          + (Long.bitCount(planes[2 * words + w] & d) << 2)
+          + (Long.bitCount(planes[3 * words + w] & d) << 3);
+    }
+    return res;
+  }
+
+  static final VectorSpecies<Long> LONG_SPECIES = VectorShapes.LONG;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  /** {@link #bitPlane}, with the vector loop of {@link BitCountBenchmark#bitCountNew()}. */
+  static int bitPlaneNew(long[] planes, long[] docs, int offset, int words) {
+    int w = 0;
+    int res = 0;
+    // without usable vector support, BIT_COUNT isn't intrinsified, see BitCountBenchmark
+    if (LONG_SPECIES.vectorBitSize() >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      int upperBound = LONG_SPECIES.loopBound(words);
+      LongVector acc = LongVector.zero(LONG_SPECIES);
+      for (; w < upperBound; w += LONG_SPECIES.length()) {
+        acc = acc.add(weightedCounts(LongVector.fromArray(LONG_SPECIES, docs, offset + w), planes, w, words));
+      }
+      res += (int) acc.reduceLanes(VectorOperators.ADD);
+    }
+    for (; w < words; w++) {
+      long d = docs[offset + w];
+      res += Long.bitCount(planes[w] & d)
+          + (Long.bitCount(planes[words + w] & d) << 1)
+          + (Long.bitCount(planes[2 * words + w] & d) << 2)
+          + (Long.bitCount(planes[3 * words + w] & d) << 3);
+    }
+    return res;
+  }
+
+  /** Per lane {@code sum(2^b * popcount(plane_b & doc))}, plane {@code b} at {@code offset + b * stride} of {@code planes}. */
+  private static LongVector weightedCounts(LongVector doc, long[] planes, int offset, int stride) {
+    LongVector c0 = LongVector.fromArray(LONG_SPECIES, planes, offset).and(doc).lanewise(VectorOperators.BIT_COUNT);
+    LongVector c1 = LongVector.fromArray(LONG_SPECIES, planes, offset + stride).and(doc).lanewise(VectorOperators.BIT_COUNT);
+    LongVector c2 = LongVector.fromArray(LONG_SPECIES, planes, offset + 2 * stride).and(doc).lanewise(VectorOperators.BIT_COUNT);
+    LongVector c3 = LongVector.fromArray(LONG_SPECIES, planes, offset + 3 * stride).and(doc).lanewise(VectorOperators.BIT_COUNT);
+    return c0.add(c1.lanewise(VectorOperators.LSHL, 1))
+        .add(c2.lanewise(VectorOperators.LSHL, 2))
+        .add(c3.lanewise(VectorOperators.LSHL, 3));
+  }
+
+  /**
+   * Scores the {@code scores.length} documents of {@code docs} with {@link #bitPlane}: runs over
+   * blocks of {@code period / words} documents, against the {@link #expand}ed planes, so every
+   * vector is full whatever the number of words. {@code counts} is scratch of {@code period} longs.
+   */
+  static void bitPlaneBulkNew(long[] planes, long[] expanded, int period, long[] docs, int words, long[] counts, int[] scores) {
+    int count = scores.length;
+    int i = 0;
+    if (LONG_SPECIES.vectorBitSize() >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      int docsPerBlock = period / words;
+      int upperBound = count - count % docsPerBlock;
+      for (; i < upperBound; i += docsPerBlock) {
+        int base = i * words;
+        for (int p = 0; p < period; p += LONG_SPECIES.length()) {
+          weightedCounts(LongVector.fromArray(LONG_SPECIES, docs, base + p), expanded, p, period).intoArray(counts, p);
+        }
+        for (int d = 0; d < docsPerBlock; d++) {
+          long sum = 0;
+          for (int w = d * words; w < (d + 1) * words; w++) {
+            sum += counts[w];
+          }
+          scores[i + d] = (int) sum;
+        }
+      }
+    }
+    for (; i < count; i++) {
+      scores[i] = bitPlane(planes, docs, i * words, words);
+    }
+  }
+
+  /** Hamming distances of {@code query} to the documents of {@code docs}, like {@link #bitPlaneBulkNew}. */
+  static void hammingBulkNew(long[] query, long[] expanded, int period, long[] docs, int words, long[] counts, int[] scores) {
+    int count = scores.length;
+    int i = 0;
+    if (LONG_SPECIES.vectorBitSize() >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      int docsPerBlock = period / words;
+      int upperBound = count - count % docsPerBlock;
+      for (; i < upperBound; i += docsPerBlock) {
+        int base = i * words;
+        for (int p = 0; p < period; p += LONG_SPECIES.length()) {
+          LongVector.fromArray(LONG_SPECIES, docs, base + p)
+              .lanewise(VectorOperators.XOR, LongVector.fromArray(LONG_SPECIES, expanded, p))
+              .lanewise(VectorOperators.BIT_COUNT)
+              .intoArray(counts, p);
+        }
+        for (int d = 0; d < docsPerBlock; d++) {
+          long sum = 0;
+          for (int w = d * words; w < (d + 1) * words; w++) {
+            sum += counts[w];
+          }
+          scores[i + d] = (int) sum;
+        }
+      }
+    }
+    for (; i < count; i++) {
+      scores[i] = hamming(query, docs, i * words, words);
+    }
+  }
+
+  @Benchmark
+  public int bitPlanePairNew() {
+    return bitPlaneNew(planes, docs, 0, words);
+  }
+
+  @Benchmark
+  public int bitPlanePairOld() {
+    return bitPlane(planes, docs, 0, words);
+  }
+
+  @Benchmark
+  public int[] bitPlaneBulkNew() {
+    bitPlaneBulkNew(planes, expanded, period, docs, words, counts, scores);
+    return scores;
+  }
+
+  @Benchmark
+  public int[] bitPlaneBulkOld() {
+    for (int i = 0; i < count; i++) {
+      scores[i] = bitPlane(planes, docs, i * words, words);
+    }
+    return scores;
+  }
+
+  @Benchmark
+  public int[] hammingBulkNew() {
+    hammingBulkNew(querySigns, expandedSigns, period, docs, words, counts, scores);
+    return scores;
+  }
+
+  @Benchmark
+  public int[] int8BulkNew() {
+    for (int i = 0; i < count; i++) {
+      bytes.b = docs8[i];
+      scores[i] = bytes.dotProductNew();
+    }
+    return scores;
+  }
+}
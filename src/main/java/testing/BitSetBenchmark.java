@@ -0,0 +1,224 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels over {@code long[]} bitsets, as used for the accept-docs filter of a filtered vector
+ * search: the cardinality of the intersection of the filter with a candidate set, which decides
+ * between brute force and graph search, AND-NOT, and iteration of the set bits. Bit {@code i} is
+ * bit {@code i % 64} of word {@code i / 64}. See {@link FilteredSearchBenchmark} for scoring.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class BitSetBenchmark {
+
+  /** The filter. */
+  long[] accept;
+  /** Candidates, half of all ords. */
+  long[] candidates;
+  long[] dest;
+  int[] ords;
+
+  /** Number of bits. */
+  @Param({"1000000"})
+  int count;
+
+  /** Fraction of the bits set in the filter. */
+  @Param({"0.001", "0.01", "0.1", "0.5", "1"})
+  double selectivity;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    accept = randomBits(count, selectivity);
+    candidates = randomBits(count, 0.5);
+    dest = new long[accept.length];
+    ords = new int[count];
+    if (intersectionCountNew() != intersectionCountOld()) {
+      throw new RuntimeException("New is wrong");
+    }
+    andNotOld();
+    long[] expected = dest.clone();
+    andNotNew();
+    if (Arrays.equals(expected, dest) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+    int n = setBitsOld();
+    int[] expectedOrds = Arrays.copyOf(ords, n);
+    if (setBitsNew() != n || Arrays.equals(expectedOrds, Arrays.copyOf(ords, n)) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+  }
+
+  /** Returns a bitset of {@code count} bits, each set with probability {@code p}. */
+  static long[] randomBits(int count, double p) {
+    long[] bits = new long[words(count)];
+    for (int i = 0; i < count; i++) {
+      if (ThreadLocalRandom.current().nextDouble() < p) {
+        bits[i >> 6] |= 1L << i;
+      }
+    }
+    return bits;
+  }
+
+  /** Number of words for {@code count} bits. */
+  static int words(int count) {
+    return (count + Long.SIZE - 1) / Long.SIZE;
+  }
+
+  static final VectorSpecies<Long> SPECIES = VectorShapes.LONG;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  @Benchmark
+  public int intersectionCountNew() {
+    return intersectionCount(accept, candidates);
+  }
+
+  @Benchmark
+  public int intersectionCountOld() {
+    int res = 0;
+    for (int i = 0; i < accept.length; i++) {
+      res += Long.bitCount(accept[i] & candidates[i]);
+    }
+    return res;
+  }
+
+  @Benchmark
+  public long[] andNotNew() {
+    andNot(accept, candidates, dest);
+    return dest;
+  }
+
+  @Benchmark
+  public long[] andNotOld() {
+    for (int i = 0; i < accept.length; i++) {
+      dest[i] = accept[i] & ~candidates[i];
+    }
+    return dest;
+  }
+
+  @Benchmark
+  public int setBitsNew() {
+    return setBits(accept, ords);
+  }
+
+  /** Collects the set bits one {@link #nextSetBit} at a time, like {@code FixedBitSet} iteration. */
+  @Benchmark
+  public int setBitsOld() {
+    int n = 0;
+    for (int ord = nextSetBit(accept, 0); ord != Integer.MAX_VALUE; ord = nextSetBit(accept, ord + 1)) {
+      ords[n++] = ord;
+    }
+    return n;
+  }
+
+  /** Returns the first set bit at or after {@code from}, or {@link Integer#MAX_VALUE} if there is none. */
+  static int nextSetBit(long[] bits, int from) {
+    int i = from >> 6;
+    if (i >= bits.length) {
+      return Integer.MAX_VALUE;
+    }
+    long word = bits[i] >>> from;
+    if (word != 0) {
+      return from + Long.numberOfTrailingZeros(word);
+    }
+    while (++i < bits.length) {
+      word = bits[i];
+      if (word != 0) {
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+      }
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  /** Returns the number of bits set in both {@code a} and {@code b}. */
+  static int intersectionCount(long[] a, long[] b) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("bitset lengths differ: " + a.length + "!=" + b.length);
+    }
+    int i = 0;
+    int res = 0;
+    // without usable vector support, BIT_COUNT isn't intrinsified: see BitCountBenchmark.bitCountNew()
+    if (SPECIES.vectorBitSize() >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      int upperBound = SPECIES.loopBound(a.length);
+      LongVector acc = LongVector.zero(SPECIES);
+      for (; i < upperBound; i += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, i);
+        LongVector vb = LongVector.fromArray(SPECIES, b, i);
+        acc = acc.add(va.and(vb).lanewise(VectorOperators.BIT_COUNT));
+      }
+      res += (int) acc.reduceLanes(VectorOperators.ADD);
+    }
+    for (; i < a.length; i++) {
+      res += Long.bitCount(a[i] & b[i]);
+    }
+    return res;
+  }
+
+  /** Sets {@code dest} to the bits of {@code a} that aren't set in {@code b}. */
+  static void andNot(long[] a, long[] b, long[] dest) {
+    if (a.length != b.length || a.length != dest.length) {
+      throw new IllegalArgumentException("bitset lengths differ: " + a.length + "!=" + b.length + "!=" + dest.length);
+    }
+    int i = 0;
+    int upperBound = SPECIES.loopBound(a.length);
+    for (; i < upperBound; i += SPECIES.length()) {
+      LongVector va = LongVector.fromArray(SPECIES, a, i);
+      LongVector vb = LongVector.fromArray(SPECIES, b, i);
+      va.lanewise(VectorOperators.AND_NOT, vb).intoArray(dest, i);
+    }
+    for (; i < a.length; i++) {
+      dest[i] = a[i] & ~b[i];
+    }
+  }
+
+  /**
+   * Writes the set bits of {@code bits} to {@code ords}, in order, and returns how many there
+   * are. Zero words are skipped a whole vector at a time.
+   */
+  static int setBits(long[] bits, int[] ords) {
+    int n = 0;
+    int i = 0;
+    int upperBound = SPECIES.loopBound(bits.length);
+    for (; i < upperBound; i += SPECIES.length()) {
+      long nonZero = LongVector.fromArray(SPECIES, bits, i).compare(VectorOperators.NE, 0).toLong();
+      while (nonZero != 0) {
+        int word = i + Long.numberOfTrailingZeros(nonZero);
+        n = setBits(bits[word], word << 6, ords, n);
+        nonZero &= nonZero - 1;
+      }
+    }
+    for (; i < bits.length; i++) {
+      n = setBits(bits[i], i << 6, ords, n);
+    }
+    return n;
+  }
+
+  /** Writes the set bits of {@code word}, plus {@code base}, to {@code ords} from {@code n}, returns the new {@code n}. */
+  private static int setBits(long word, int base, int[] ords, int n) {
+    while (word != 0) {
+      ords[n++] = base + Long.numberOfTrailingZeros(word);
+      word &= word - 1;
+    }
+    return n;
+  }
+}
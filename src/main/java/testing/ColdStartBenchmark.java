@@ -0,0 +1,206 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the very first call of each kernel in a fresh JVM: kernel class and Vector API
+ * initialization, then interpreted execution. Every fork measures exactly one call, so run with
+ * enough forks to see the distribution. With {@code prewarm=true} the setup runs
+ * {@link Prewarm#kernels()} first, which is what a service would do at startup.
+ * <p>
+ * Time-to-first-fast-query including JVM startup, and the effect of a CDS archive, is measured
+ * across whole processes by {@link ColdStartProbe}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1, batchSize = 1)
+@Fork(value = 10, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class ColdStartBenchmark {
+
+  private float[] floats1;
+  private float[] floats2;
+  private byte[] bytes1;
+  private byte[] bytes2;
+  private long[] longs;
+
+  @Param({"1024"})
+  int size;
+
+  @Param({"false", "true"})
+  boolean prewarm;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    // plain arrays only: nothing here may touch the kernel classes or the Vector API, so bits is
+    // checked against the property's string, not with VectorShapes.check, which initializes it
+    String property = System.getProperty(VectorShapes.PROPERTY, VectorShapes.PREFERRED);
+    if (bits.equals(VectorShapes.PREFERRED) == false && bits.equals(property) == false) {
+      throw new IllegalStateException("bits=" + bits + " but the fork has -D" + VectorShapes.PROPERTY + "=" + property
+          + ": run through " + ShapeSweep.class.getName() + ", or with -jvmArgsAppend -D" + VectorShapes.PROPERTY + "=" + bits);
+    }
+    floats1 = new float[size];
+    floats2 = new float[size];
+    for (int i = 0; i < size; ++i) {
+      floats1[i] = ThreadLocalRandom.current().nextFloat();
+      floats2[i] = ThreadLocalRandom.current().nextFloat();
+    }
+    bytes1 = new byte[size];
+    bytes2 = new byte[size];
+    ThreadLocalRandom.current().nextBytes(bytes1);
+    ThreadLocalRandom.current().nextBytes(bytes2);
+    longs = new long[size];
+    for (int i = 0; i < size; i++) {
+      longs[i] = ThreadLocalRandom.current().nextLong();
+    }
+    if (prewarm) {
+      Prewarm.kernels();
+    }
+  }
+
+  @Benchmark
+  public float floatDotProductNew() {
+    FloatDotProductBenchmark kernel = new FloatDotProductBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.dotProductNew();
+  }
+
+  @Benchmark
+  public float floatDotProductOld() {
+    FloatDotProductBenchmark kernel = new FloatDotProductBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.dotProductOld();
+  }
+
+  @Benchmark
+  public float floatSquareNew() {
+    FloatSquareBenchmark kernel = new FloatSquareBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.squareNew();
+  }
+
+  @Benchmark
+  public float floatSquareOld() {
+    FloatSquareBenchmark kernel = new FloatSquareBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.squareOld();
+  }
+
+  @Benchmark
+  public float floatCosineNew() {
+    FloatCosineBenchmark kernel = new FloatCosineBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.cosineNew();
+  }
+
+  @Benchmark
+  public float floatCosineOld() {
+    FloatCosineBenchmark kernel = new FloatCosineBenchmark();
+    kernel.a = floats1;
+    kernel.b = floats2;
+    return kernel.cosineOld();
+  }
+
+  @Benchmark
+  public int binaryDotProductNew() {
+    BinaryDotProductBenchmark kernel = new BinaryDotProductBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.dotProductNew();
+  }
+
+  @Benchmark
+  public int binaryDotProductOld() {
+    BinaryDotProductBenchmark kernel = new BinaryDotProductBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.dotProductOld();
+  }
+
+  @Benchmark
+  public int binarySquareDistanceNew() {
+    BinarySquareBenchmark kernel = new BinarySquareBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.squareDistanceNew();
+  }
+
+  @Benchmark
+  public int binarySquareDistanceOld() {
+    BinarySquareBenchmark kernel = new BinarySquareBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.squareDistanceOld();
+  }
+
+  @Benchmark
+  public float binaryCosineDistanceNew() {
+    BinaryCosineBenchmark kernel = new BinaryCosineBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.cosineDistanceNew();
+  }
+
+  @Benchmark
+  public float binaryCosineDistanceOld() {
+    BinaryCosineBenchmark kernel = new BinaryCosineBenchmark();
+    kernel.a = bytes1;
+    kernel.b = bytes2;
+    return kernel.cosineDistanceOld();
+  }
+
+  @Benchmark
+  public int bitCountNew() {
+    BitCountBenchmark kernel = new BitCountBenchmark();
+    kernel.longs = longs;
+    kernel.size = size;
+    return kernel.bitCountNew();
+  }
+
+  @Benchmark
+  public int bitCountOld() {
+    BitCountBenchmark kernel = new BitCountBenchmark();
+    kernel.longs = longs;
+    kernel.size = size;
+    return kernel.bitCountOld();
+  }
+
+  @Benchmark
+  public float mixedDotProductNew() {
+    MixedDotProductBenchmark kernel = new MixedDotProductBenchmark();
+    kernel.a = floats1;
+    kernel.b = bytes2;
+    kernel.scale = 1 / 127f;
+    return kernel.dotProductNew();
+  }
+
+  @Benchmark
+  public float mixedSquareNew() {
+    MixedSquareBenchmark kernel = new MixedSquareBenchmark();
+    kernel.a = floats1;
+    kernel.b = bytes2;
+    kernel.scale = 1 / 127f;
+    return kernel.squareNew();
+  }
+
+  @Benchmark
+  public float mixedCosineNew() {
+    MixedCosineBenchmark kernel = new MixedCosineBenchmark();
+    kernel.a = floats1;
+    kernel.b = bytes2;
+    return kernel.cosineNew();
+  }
+}
@@ -0,0 +1,127 @@
+package testing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures time-to-first-fast-query of whole JVM processes: each run starts a child JVM which
+ * runs {@link Prewarm#query()} in a loop, and reports (in ms since JVM start) when {@code main}
+ * was entered, when the first query finished, and when the first query within {@link #FAST}x of
+ * the steady-state latency finished. Compares plain startup, {@link Prewarm#kernels()}, and a
+ * dynamic CDS archive of the loaded kernel and Vector API classes, with and without prewarming.
+ * <p>
+ * Run from the shaded jar, CDS only archives classes loaded from jars:
+ * {@code java -cp target/vectorbench.jar testing.ColdStartProbe [runs]}
+ */
+public class ColdStartProbe {
+
+  /** Queries per child, the steady state is the median of the last {@link #STEADY} of them. */
+  static final int QUERIES = 20_000;
+  static final int STEADY = 1_000;
+  /** A query is fast once it's within this factor of the steady state. */
+  static final double FAST = 1.5;
+  static final int SIZE = 1024;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("child")) {
+      child(Boolean.parseBoolean(args[1]));
+      return;
+    }
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    Path archive = Files.createTempFile("vectorbench-kernels", ".jsa");
+    Files.delete(archive);
+    try {
+      // dump with prewarming, so that every kernel and all the Vector API classes they need are loaded
+      run(List.of("-XX:ArchiveClassesAtExit=" + archive), true);
+      if (Files.exists(archive) == false) {
+        throw new IllegalStateException("CDS archive was not created, run from the jar");
+      }
+      String cds = "-XX:SharedArchiveFile=" + archive;
+
+      System.out.printf("%-12s %10s %12s %17s %12s%n", "config", "main (ms)", "first (ms)", "first fast (ms)", "steady (us)");
+      report("default", runs, List.of(), false);
+      report("prewarm", runs, List.of(), true);
+      report("cds", runs, List.of(cds), false);
+      report("cds+prewarm", runs, List.of(cds), true);
+    } finally {
+      Files.deleteIfExists(archive);
+    }
+  }
+
+  private static void report(String config, int runs, List<String> jvmArgs, boolean prewarm) throws IOException, InterruptedException {
+    double[] totals = new double[4];
+    for (int i = 0; i < runs; i++) {
+      double[] result = run(jvmArgs, prewarm);
+      for (int j = 0; j < totals.length; j++) {
+        totals[j] += result[j];
+      }
+    }
+    System.out.printf("%-12s %10.1f %12.1f %17.1f %12.1f%n", config,
+        totals[0] / runs, totals[1] / runs, totals[2] / runs, totals[3] / runs);
+  }
+
+  /** Runs a child JVM, returns its main, first query and first fast query times and steady-state latency. */
+  private static double[] run(List<String> jvmArgs, boolean prewarm) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.add("--add-modules=jdk.incubator.vector");
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ColdStartProbe.class.getName());
+    command.add("child");
+    command.add(Boolean.toString(prewarm));
+    Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    String line;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      line = reader.readLine();
+    }
+    if (process.waitFor() != 0 || line == null) {
+      throw new IllegalStateException("child failed: " + command);
+    }
+    return Arrays.stream(line.trim().split(" ")).mapToDouble(Double::parseDouble).toArray();
+  }
+
+  private static void child(boolean prewarm) {
+    long main = System.nanoTime();
+    if (prewarm) {
+      Prewarm.kernels();
+    }
+    Prewarm kernels = new Prewarm(SIZE);
+    long[] latencies = new long[QUERIES];
+    long[] ends = new long[QUERIES];
+    float sum = 0;
+    for (int i = 0; i < QUERIES; i++) {
+      long start = System.nanoTime();
+      sum += kernels.query();
+      ends[i] = System.nanoTime();
+      latencies[i] = ends[i] - start;
+    }
+    Prewarm.sink = sum;
+
+    long[] steady = Arrays.copyOfRange(latencies, QUERIES - STEADY, QUERIES);
+    Arrays.sort(steady);
+    long median = steady[STEADY / 2];
+    int fast = 0;
+    while (latencies[fast] > FAST * median) {
+      fast++;
+    }
+    // only now touch the management classes, they'd skew the startup otherwise
+    long now = System.nanoTime();
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    System.out.println(sinceStart(main, now, uptime) + " " + sinceStart(ends[0], now, uptime) + " "
+        + sinceStart(ends[fast], now, uptime) + " " + median / 1000.0);
+  }
+
+  private static double sinceStart(long nanos, long now, long uptime) {
+    return uptime - (now - nanos) / 1e6;
+  }
+}
@@ -0,0 +1,356 @@
+package testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Vectors stored in the {@code .fvecs}, {@code .bvecs} or {@code .ivecs} formats: every record is
+ * a little-endian int32 dimension followed by that many float32, int8 or int32 values. Files are
+ * memory-mapped read-only, and the per-vector views returned here don't copy.
+ * <p>
+ * Note {@code .bvecs} values are read as signed java bytes, consistent with the byte kernels.
+ */
+public final class Dataset {
+
+  public enum Format {
+    FVECS(Float.BYTES), BVECS(Byte.BYTES), IVECS(Integer.BYTES);
+
+    final int bytesPerValue;
+
+    Format(int bytesPerValue) {
+      this.bytesPerValue = bytesPerValue;
+    }
+
+    String extension() {
+      return "." + name().toLowerCase();
+    }
+
+    static Format forPath(Path path) {
+      String name = path.getFileName().toString();
+      for (Format format : values()) {
+        if (name.endsWith(format.extension())) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("unknown vector file format: " + path);
+    }
+  }
+
+  private final Path path;
+  private final Format format;
+  private final int dimension;
+  private final int count;
+  private final int recordSize;
+  // a single mapping is limited to 2GB, so records are spread over as many as needed
+  private final int recordsPerChunk;
+  private final MappedByteBuffer[] chunks;
+
+  private Dataset(Path path) throws IOException {
+    this.path = path;
+    this.format = Format.forPath(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length < Integer.BYTES) {
+        throw new IllegalArgumentException("empty vector file: " + path);
+      }
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      dimension = header.getInt(0);
+      if (dimension <= 0) {
+        throw new IllegalArgumentException("invalid dimension " + dimension + " in " + path);
+      }
+      recordSize = Integer.BYTES + dimension * format.bytesPerValue;
+      if (length % recordSize != 0) {
+        throw new IllegalArgumentException("truncated vector file: " + path + " has " + length
+            + " bytes, not a multiple of record size " + recordSize);
+      }
+      long records = length / recordSize;
+      if (records > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("too many vectors in " + path + ": " + records);
+      }
+      count = (int) records;
+      recordsPerChunk = Integer.MAX_VALUE / recordSize;
+      chunks = new MappedByteBuffer[(int) ((records + recordsPerChunk - 1) / recordsPerChunk)];
+      for (int i = 0; i < chunks.length; i++) {
+        long start = (long) i * recordsPerChunk * recordSize;
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, (long) recordsPerChunk * recordSize));
+      }
+    }
+  }
+
+  /** Maps the given vector file, the format is taken from its extension. */
+  public static Dataset open(Path path) {
+    try {
+      return new Dataset(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  public Format format() {
+    return format;
+  }
+
+  public int dimension() {
+    return dimension;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /** Returns a uniformly random vector ordinal. */
+  public int randomOrd() {
+    return ThreadLocalRandom.current().nextInt(count);
+  }
+
+  /** Returns the values of vector {@code ord}, without the dimension header. */
+  private ByteBuffer values(int ord) {
+    if (ord < 0 || ord >= count) {
+      throw new IndexOutOfBoundsException("ord " + ord + " out of bounds for " + count + " vectors");
+    }
+    int position = (ord % recordsPerChunk) * recordSize + Integer.BYTES;
+    return chunks[ord / recordsPerChunk].slice(position, recordSize - Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void checkFormat(Format expected) {
+    if (format != expected) {
+      throw new IllegalStateException(path + " is " + format + ", not " + expected);
+    }
+  }
+
+  /** Zero-copy view of vector {@code ord} of a {@code .fvecs} file. */
+  public FloatBuffer floatVector(int ord) {
+    checkFormat(Format.FVECS);
+    return values(ord).asFloatBuffer();
+  }
+
+  /** Zero-copy view of vector {@code ord} of a {@code .bvecs} file. */
+  public ByteBuffer byteVector(int ord) {
+    checkFormat(Format.BVECS);
+    return values(ord);
+  }
+
+  /** Zero-copy view of vector {@code ord} of an {@code .ivecs} file. */
+  public IntBuffer intVector(int ord) {
+    checkFormat(Format.IVECS);
+    return values(ord).asIntBuffer();
+  }
+
+  /** Copies vector {@code ord} onto the heap, {@code .bvecs} values are widened. */
+  public float[] floats(int ord) {
+    float[] dest = new float[dimension];
+    if (format == Format.BVECS) {
+      ByteBuffer values = values(ord);
+      for (int i = 0; i < dimension; i++) {
+        dest[i] = values.get(i);
+      }
+    } else {
+      floatVector(ord).get(dest);
+    }
+    return dest;
+  }
+
+  /** Copies vector {@code ord} of a {@code .bvecs} file onto the heap. */
+  public byte[] bytes(int ord) {
+    byte[] dest = new byte[dimension];
+    byteVector(ord).get(dest);
+    return dest;
+  }
+
+  /** Copies vector {@code ord} of an {@code .ivecs} file onto the heap. */
+  public int[] ints(int ord) {
+    int[] dest = new int[dimension];
+    intVector(ord).get(dest);
+    return dest;
+  }
+
+  public static void writeFvecs(Path path, float[][] vectors) throws IOException {
+    try (Writer writer = new Writer(path, Format.FVECS, dimension(vectors.length == 0 ? 0 : vectors[0].length))) {
+      for (float[] vector : vectors) {
+        writer.add(vector);
+      }
+    }
+  }
+
+  public static void writeBvecs(Path path, byte[][] vectors) throws IOException {
+    try (Writer writer = new Writer(path, Format.BVECS, dimension(vectors.length == 0 ? 0 : vectors[0].length))) {
+      for (byte[] vector : vectors) {
+        writer.add(vector);
+      }
+    }
+  }
+
+  public static void writeIvecs(Path path, int[][] vectors) throws IOException {
+    try (Writer writer = new Writer(path, Format.IVECS, dimension(vectors.length == 0 ? 0 : vectors[0].length))) {
+      for (int[] vector : vectors) {
+        writer.add(vector);
+      }
+    }
+  }
+
+  private static int dimension(int dimension) {
+    if (dimension <= 0) {
+      throw new IllegalArgumentException("can't write vectors of dimension " + dimension);
+    }
+    return dimension;
+  }
+
+  /** Streams vectors of a fixed dimension to a file, one record at a time. */
+  public static final class Writer implements AutoCloseable {
+    private final FileChannel channel;
+    private final Format format;
+    private final int dimension;
+    private final ByteBuffer record;
+
+    public Writer(Path path, Format format, int dimension) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      this.format = format;
+      this.dimension = dimension;
+      this.record = ByteBuffer.allocate(Integer.BYTES + dimension * format.bytesPerValue).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void add(float[] vector) throws IOException {
+      check(Format.FVECS, vector.length);
+      record.asFloatBuffer().put(vector);
+      write();
+    }
+
+    public void add(byte[] vector) throws IOException {
+      check(Format.BVECS, vector.length);
+      record.put(vector);
+      write();
+    }
+
+    public void add(int[] vector) throws IOException {
+      check(Format.IVECS, vector.length);
+      record.asIntBuffer().put(vector);
+      write();
+    }
+
+    private void check(Format expected, int length) {
+      if (format != expected) {
+        throw new IllegalStateException("writing " + format + ", not " + expected);
+      }
+      if (length != dimension) {
+        throw new IllegalArgumentException("vector dimensions differ: " + length + "!=" + dimension);
+      }
+      record.clear();
+      record.putInt(dimension);
+    }
+
+    private void write() throws IOException {
+      record.rewind();
+      while (record.hasRemaining()) {
+        channel.write(record);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes {@code count} synthetic vectors of the given dimension, drawn from gaussian clusters.
+   * Unlike uniform random data, values are clustered and norms are skewed: each centroid gets a
+   * log-normal scale. {@code .bvecs} values are quantized from the same floats, clamping at 4 sigma.
+   */
+  public static void writeClustered(Path path, int dimension, int count, int clusters, long seed) throws IOException {
+    Format format = Format.forPath(path);
+    Random random = new Random(seed);
+    float[][] centroids = new float[clusters][dimension];
+    for (float[] centroid : centroids) {
+      float scale = (float) Math.exp(random.nextGaussian() * 0.5);
+      for (int i = 0; i < dimension; i++) {
+        centroid[i] = (float) random.nextGaussian() * scale;
+      }
+    }
+    float[] vector = new float[dimension];
+    byte[] bytes = new byte[dimension];
+    int[] ints = new int[dimension];
+    try (Writer writer = new Writer(path, format, dimension(dimension))) {
+      for (int n = 0; n < count; n++) {
+        float[] centroid = centroids[random.nextInt(clusters)];
+        for (int i = 0; i < dimension; i++) {
+          vector[i] = centroid[i] + (float) random.nextGaussian() * 0.25f;
+        }
+        switch (format) {
+          case FVECS -> writer.add(vector);
+          case BVECS -> {
+            for (int i = 0; i < dimension; i++) {
+              bytes[i] = (byte) Math.round(Math.min(127f, Math.max(-127f, vector[i] * (127f / 4))));
+            }
+            writer.add(bytes);
+          }
+          case IVECS -> {
+            for (int i = 0; i < dimension; i++) {
+              ints[i] = Math.round(vector[i] * (127f / 4));
+            }
+            writer.add(ints);
+          }
+        }
+      }
+    }
+  }
+
+  /** Vectors in the clustered datasets generated for benchmarks. */
+  static final int CLUSTERED_COUNT = 10_000;
+  /** Clusters in the clustered datasets generated for benchmarks. */
+  static final int CLUSTERED_CLUSTERS = 32;
+
+  /**
+   * Resolves a benchmark's {@code data} parameter: {@code "random"} returns null, meaning the
+   * benchmark fills its own uniform random arrays, {@code "clustered"} generates (once) and opens
+   * a synthetic clustered dataset in {@code java.io.tmpdir}, anything else is the path of a vector file.
+   *
+   * @throws IllegalArgumentException if the file's format or dimension doesn't match.
+   */
+  static Dataset forBenchmark(String data, Format format, int dimension) {
+    final Path path;
+    if (data.equals("random")) {
+      return null;
+    } else if (data.equals("clustered")) {
+      path = Paths.get(System.getProperty("java.io.tmpdir"), "vectorbench-clustered-" + dimension + format.extension());
+      if (Files.exists(path) == false) {
+        try {
+          // write to a temp file first, so a concurrent or interrupted run never sees a partial file
+          Path tmp = Files.createTempFile(path.getParent(), "vectorbench", format.extension());
+          writeClustered(tmp, dimension, CLUSTERED_COUNT, CLUSTERED_CLUSTERS, dimension);
+          Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    } else {
+      path = Paths.get(data);
+    }
+    Dataset dataset = open(path);
+    if (dataset.format() != format) {
+      throw new IllegalArgumentException(path + " is " + dataset.format() + ", benchmark needs " + format);
+    }
+    if (dataset.dimension() != dimension) {
+      throw new IllegalArgumentException("dataset dimension differs from benchmark: " + dataset.dimension()
+          + "!=" + dimension + ", run with -p size=" + dataset.dimension());
+    }
+    return dataset;
+  }
+}
@@ -0,0 +1,404 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.Vector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Early-abandoning square distances for threshold-bounded search: a candidate only has to be
+ * scored exactly if it can beat the current k-th best distance, so the bounded kernels check the
+ * partial sum once per {@link #BLOCK} dimensions, and stop as soon as it exceeds the bound: a sum
+ * of squares only grows. Each benchmark scans {@code count} candidates and counts those within
+ * the bound, which is set so that a fraction {@code pruned} of them is beyond it; the unbounded
+ * kernels of {@link FloatSquareBenchmark} and {@link BinarySquareBenchmark} are the baseline.
+ * <p>
+ * The earlier the partial sum crosses the bound, the more is saved, so with {@code order=variance}
+ * the dimensions of the query and of all candidates are reordered by decreasing variance first,
+ * which leaves every distance the same. The generated clustered data has no such dimensions to
+ * put first, real embeddings often do.
+ * <p>
+ * Each check is a reduction and a branch the CPU can't predict, so the bounded kernels only win
+ * when most candidates are abandoned early: at a top-k bound, not at a loose one, and not on
+ * vectors of only a block or two.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class EarlyAbandonBenchmark {
+
+  float[] query;
+  float[][] docs;
+  float bound;
+  byte[] byteQuery;
+  byte[][] byteDocs;
+  int byteBound;
+
+  FloatSquareBenchmark floats;
+  BinarySquareBenchmark binary;
+
+  /** Number of candidates. */
+  @Param({"10000"})
+  int count;
+
+  @Param({"128", "768"})
+  int size;
+
+  /** Fraction of the candidates beyond the bound. */
+  @Param({"0.5", "0.9", "0.99", "0.999"})
+  double pruned;
+
+  /** {@code natural} or {@code variance}: the order of the dimensions. */
+  @Param({"natural", "variance"})
+  String order;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"clustered"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    docs = new float[count][];
+    byteDocs = new byte[count][];
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    // the byte candidates need a .bvecs file, which exists only for the generated dataset
+    Dataset byteDataset = data.equals("clustered") ? Dataset.forBenchmark(data, Dataset.Format.BVECS, size) : null;
+    for (int i = 0; i < count; i++) {
+      if (dataset == null) {
+        docs[i] = new float[size];
+        for (int j = 0; j < size; j++) {
+          docs[i][j] = ThreadLocalRandom.current().nextFloat();
+        }
+      } else {
+        docs[i] = dataset.floats(i % dataset.count());
+      }
+      if (byteDataset == null) {
+        byteDocs[i] = new byte[size];
+        ThreadLocalRandom.current().nextBytes(byteDocs[i]);
+      } else {
+        byteDocs[i] = byteDataset.bytes(i % byteDataset.count());
+      }
+    }
+    // a query near, but not in, the candidates
+    int ord = ThreadLocalRandom.current().nextInt(count);
+    query = docs[ord].clone();
+    byteQuery = byteDocs[ord].clone();
+    for (int j = 0; j < size; j++) {
+      query[j] += (float) ThreadLocalRandom.current().nextGaussian() * 0.1f;
+      byteQuery[j] = (byte) Math.max(-128, Math.min(127, byteQuery[j] + ThreadLocalRandom.current().nextInt(-4, 5)));
+    }
+    if (order.equals("variance")) {
+      int[] dims = varianceOrder(docs);
+      query = permute(query, dims);
+      for (int i = 0; i < count; i++) {
+        docs[i] = permute(docs[i], dims);
+      }
+      int[] byteDims = varianceOrder(byteDocs);
+      byteQuery = permute(byteQuery, byteDims);
+      for (int i = 0; i < count; i++) {
+        byteDocs[i] = permute(byteDocs[i], byteDims);
+      }
+    }
+
+    floats = new FloatSquareBenchmark();
+    floats.a = query;
+    binary = new BinarySquareBenchmark();
+    binary.a = byteQuery;
+    float[] distances = new float[count];
+    int[] byteDistances = new int[count];
+    for (int i = 0; i < count; i++) {
+      floats.b = docs[i];
+      distances[i] = floats.squareNew();
+      binary.b = byteDocs[i];
+      byteDistances[i] = binary.squareDistanceNew();
+    }
+    Arrays.sort(distances);
+    Arrays.sort(byteDistances);
+    int kept = (int) ((1 - pruned) * count);
+    bound = distances[Math.max(0, kept - 1)];
+    byteBound = byteDistances[Math.max(0, kept - 1)];
+
+    for (int i = 0; i < count; i++) {
+      floats.b = docs[i];
+      float expected = floats.squareNew();
+      float actual = squareBounded(query, docs[i], bound);
+      if (expected <= bound ? Math.abs(expected - actual) > 0.001f * expected : actual <= bound) {
+        throw new RuntimeException("New is wrong");
+      }
+      binary.b = byteDocs[i];
+      int expectedInt = binary.squareDistanceNew();
+      int actualInt = squareDistanceBounded(byteQuery, byteDocs[i], byteBound);
+      if (expectedInt <= byteBound ? expectedInt != actualInt : actualInt <= byteBound) {
+        throw new RuntimeException("New is wrong");
+      }
+    }
+    if (squareBoundedNew() != squareNew() || binarySquareBoundedNew() != binarySquareNew()) {
+      throw new RuntimeException("New is wrong");
+    }
+  }
+
+  /** Returns the order of the dimensions by decreasing variance over {@code vectors}. */
+  static int[] varianceOrder(float[][] vectors) {
+    int dimension = vectors[0].length;
+    double[] variance = new double[dimension];
+    for (int j = 0; j < dimension; j++) {
+      double sum = 0;
+      double sumSquares = 0;
+      for (float[] vector : vectors) {
+        sum += vector[j];
+        sumSquares += (double) vector[j] * vector[j];
+      }
+      double mean = sum / vectors.length;
+      variance[j] = sumSquares / vectors.length - mean * mean;
+    }
+    return IntStream.range(0, dimension).boxed()
+        .sorted(Comparator.comparingDouble(j -> -variance[j]))
+        .mapToInt(Integer::intValue).toArray();
+  }
+
+  static int[] varianceOrder(byte[][] vectors) {
+    float[][] floats = new float[vectors.length][];
+    for (int i = 0; i < vectors.length; i++) {
+      floats[i] = new float[vectors[i].length];
+      for (int j = 0; j < floats[i].length; j++) {
+        floats[i][j] = vectors[i][j];
+      }
+    }
+    return varianceOrder(floats);
+  }
+
+  /** Returns {@code v} with its dimensions in the given order. */
+  static float[] permute(float[] v, int[] order) {
+    float[] permuted = new float[v.length];
+    for (int j = 0; j < order.length; j++) {
+      permuted[j] = v[order[j]];
+    }
+    return permuted;
+  }
+
+  static byte[] permute(byte[] v, int[] order) {
+    byte[] permuted = new byte[v.length];
+    for (int j = 0; j < order.length; j++) {
+      permuted[j] = v[order[j]];
+    }
+    return permuted;
+  }
+
+  /** Counts the candidates within the bound, with the full distance of every one. */
+  @Benchmark
+  public int squareNew() {
+    int n = 0;
+    for (float[] doc : docs) {
+      floats.b = doc;
+      if (floats.squareNew() <= bound) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int squareBoundedNew() {
+    int n = 0;
+    for (float[] doc : docs) {
+      if (squareBounded(query, doc, bound) <= bound) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int binarySquareNew() {
+    int n = 0;
+    for (byte[] doc : byteDocs) {
+      binary.b = doc;
+      if (binary.squareDistanceNew() <= byteBound) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int binarySquareBoundedNew() {
+    int n = 0;
+    for (byte[] doc : byteDocs) {
+      if (squareDistanceBounded(byteQuery, doc, byteBound) <= byteBound) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+
+  /** Dimensions between checks of the partial sum: with a check per unrolled iteration, the reductions cost more than early exits save. */
+  static final int BLOCK = 128;
+
+  /**
+   * Returns the square distance of {@code a} and {@code b} if it's at most {@code bound},
+   * otherwise some partial sum that is already above {@code bound}: {@link FloatSquareBenchmark#squareNew()},
+   * checking the bound every {@link #BLOCK} dimensions of vectors of at least two blocks.
+   */
+  static float squareBounded(float[] a, float[] b, float bound) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    int i = 0;
+    float res = 0;
+    // if the array size is large (> 2x platform vector size), its worth the overhead to vectorize
+    if (a.length > 2 * SPECIES.length()) {
+      // vector loop is unrolled 4x (4 accumulators in parallel)
+      FloatVector acc1 = FloatVector.zero(SPECIES);
+      FloatVector acc2 = FloatVector.zero(SPECIES);
+      FloatVector acc3 = FloatVector.zero(SPECIES);
+      FloatVector acc4 = FloatVector.zero(SPECIES);
+      int upperBound = SPECIES.loopBound(a.length - 3*SPECIES.length());
+      // at least one unrolled iteration per block, for species wider than a block, and a single
+      // block for short vectors: a check that can't save more than a block isn't worth its reduction
+      int block = a.length < 2 * BLOCK ? upperBound : Math.max(BLOCK, 4 * SPECIES.length());
+      while (i < upperBound) {
+        int blockBound = Math.min(upperBound, i + block);
+        for (; i < blockBound; i += 4 * SPECIES.length()) {
+          FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+          FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+          FloatVector diff1 = va.sub(vb);
+          acc1 = acc1.add(diff1.mul(diff1));
+          FloatVector vc = FloatVector.fromArray(SPECIES, a, i + SPECIES.length());
+          FloatVector vd = FloatVector.fromArray(SPECIES, b, i + SPECIES.length());
+          FloatVector diff2 = vc.sub(vd);
+          acc2 = acc2.add(diff2.mul(diff2));
+          FloatVector ve = FloatVector.fromArray(SPECIES, a, i + 2*SPECIES.length());
+          FloatVector vf = FloatVector.fromArray(SPECIES, b, i + 2*SPECIES.length());
+          FloatVector diff3 = ve.sub(vf);
+          acc3 = acc3.add(diff3.mul(diff3));
+          FloatVector vg = FloatVector.fromArray(SPECIES, a, i + 3*SPECIES.length());
+          FloatVector vh = FloatVector.fromArray(SPECIES, b, i + 3*SPECIES.length());
+          FloatVector diff4 = vg.sub(vh);
+          acc4 = acc4.add(diff4.mul(diff4));
+        }
+        float partial = acc1.add(acc2).add(acc3.add(acc4)).reduceLanes(VectorOperators.ADD);
+        if (partial > bound) {
+          return partial;
+        }
+      }
+      // vector tail: less scalar computations for unaligned sizes, esp with big vector sizes
+      upperBound = SPECIES.loopBound(a.length);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+        FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+        FloatVector diff = va.sub(vb);
+        acc1 = acc1.add(diff.mul(diff));
+      }
+      // reduce
+      FloatVector res1 = acc1.add(acc2);
+      FloatVector res2 = acc3.add(acc4);
+      res += res1.add(res2).reduceLanes(VectorOperators.ADD);
+    }
+
+    for (; i < a.length; i++) {
+      float diff = a[i] - b[i];
+      res += diff * diff;
+    }
+    return res;
+  }
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  /**
+   * Returns the square distance of {@code a} and {@code b} if it's at most {@code bound},
+   * otherwise some partial sum that is already above {@code bound}: {@link BinarySquareBenchmark#squareDistanceNew()},
+   * checking the bound every {@link #BLOCK} dimensions of vectors of at least two blocks.
+   */
+  static int squareDistanceBounded(byte[] a, byte[] b, int bound) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    int i = 0;
+    int res = 0;
+    final int vectorSize = VectorShapes.INT.vectorBitSize();
+    // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
+    if (a.length >= 16 && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      if (vectorSize >= 256) {
+        VectorSpecies<Byte> byteSpecies = BinarySquareBenchmark.PREFERRED_BYTE_SPECIES;
+        VectorSpecies<Short> shortSpecies = BinarySquareBenchmark.PREFERRED_SHORT_SPECIES;
+        int upperBound = byteSpecies.loopBound(a.length);
+        int block = a.length < 2 * BLOCK ? upperBound : BLOCK;
+        IntVector acc = IntVector.zero(VectorShapes.INT);
+        while (i < upperBound) {
+          int blockBound = Math.min(upperBound, i + block);
+          for (; i < blockBound; i += byteSpecies.length()) {
+            ByteVector va8 = ByteVector.fromArray(byteSpecies, a, i);
+            ByteVector vb8 = ByteVector.fromArray(byteSpecies, b, i);
+            Vector<Short> va16 = va8.convertShape(VectorOperators.B2S, shortSpecies, 0);
+            Vector<Short> vb16 = vb8.convertShape(VectorOperators.B2S, shortSpecies, 0);
+            Vector<Short> diff16 = va16.sub(vb16);
+            Vector<Integer> diff32 = diff16.convertShape(VectorOperators.S2I, VectorShapes.INT, 0);
+            acc = acc.add(diff32.mul(diff32));
+          }
+          int partial = acc.reduceLanes(VectorOperators.ADD);
+          if (partial > bound) {
+            return partial;
+          }
+        }
+        res += acc.reduceLanes(VectorOperators.ADD);
+      } else {
+        // 128-bit implementation, which must "split up" vectors due to widening conversions
+        int upperBound = ByteVector.SPECIES_64.loopBound(a.length);
+        int block = a.length < 2 * BLOCK ? upperBound : BLOCK;
+        IntVector acc1 = IntVector.zero(IntVector.SPECIES_128);
+        IntVector acc2 = IntVector.zero(IntVector.SPECIES_128);
+        while (i < upperBound) {
+          int blockBound = Math.min(upperBound, i + block);
+          for (; i < blockBound; i += ByteVector.SPECIES_64.length()) {
+            ByteVector va8 = ByteVector.fromArray(ByteVector.SPECIES_64, a, i);
+            ByteVector vb8 = ByteVector.fromArray(ByteVector.SPECIES_64, b, i);
+            Vector<Short> va16 = va8.convertShape(VectorOperators.B2S, ShortVector.SPECIES_128, 0);
+            Vector<Short> vb16 = vb8.convertShape(VectorOperators.B2S, ShortVector.SPECIES_128, 0);
+            Vector<Short> diff16 = va16.sub(vb16);
+            Vector<Integer> diff32_1 = diff16.convertShape(VectorOperators.S2I, IntVector.SPECIES_128, 0);
+            Vector<Integer> diff32_2 = diff16.convertShape(VectorOperators.S2I, IntVector.SPECIES_128, 1);
+            acc1 = acc1.add(diff32_1.mul(diff32_1));
+            acc2 = acc2.add(diff32_2.mul(diff32_2));
+          }
+          int partial = acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+          if (partial > bound) {
+            return partial;
+          }
+        }
+        res += acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+      }
+    }
+
+    for (; i < a.length; i++) {
+      int diff = a[i] - b[i];
+      res += diff * diff;
+      // without usable vectors, the scalar loop checks once per block too
+      if (res > bound && (i & (BLOCK - 1)) == BLOCK - 1) {
+        return res;
+      }
+    }
+    return res;
+  }
+}
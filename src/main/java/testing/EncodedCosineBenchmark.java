@@ -0,0 +1,183 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Cosine against a document stored as little-endian floats inside a {@code byte[]} block,
+ * as in an index page, at a possibly unaligned byte offset. The zero-copy kernel loads the
+ * block's bytes directly into float lanes; the old way decodes the document into a
+ * {@code float[]} first, either freshly allocated or reused, and runs
+ * {@link FloatCosineBenchmark#cosineNew()} on it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class EncodedCosineBenchmark {
+
+  float[] a;
+  byte[] b;
+
+  private FloatCosineBenchmark floats;
+  private float[] scratch;
+
+  @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
+  //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
+  //@Param({"1024"})
+  int size;
+
+  /** Byte offset of the document in its block: anything but a multiple of 4 is unaligned. */
+  @Param({"0", "1"})
+  int offset;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    float[] doc;
+    if (dataset == null) {
+      a = new float[size];
+      doc = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        doc[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      doc = dataset.floats(dataset.randomOrd());
+    }
+    b = new byte[offset + Float.BYTES * size];
+    EncodedDotProductBenchmark.encode(doc, b, offset);
+    floats = new FloatCosineBenchmark();
+    floats.a = a;
+    scratch = new float[size];
+    // order of ops may change, but try to detect broken shit
+    float expected = cosineOld();
+    if (Math.abs(expected - cosineNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+
+  /**
+   * Cosine of {@code a} and the {@code a.length} little-endian floats of {@code b} at byte
+   * {@code offset}, without copying them out.
+   *
+   * @throws IndexOutOfBoundsException if {@code b} is too short.
+   */
+  static float cosine(float[] a, byte[] b, int offset) {
+    Objects.checkFromIndexSize(offset, Float.BYTES * a.length, b.length);
+    int i = 0;
+    float sum = 0;
+    float norm1 = 0;
+    float norm2 = 0;
+    // if the array size is large (> 2x platform vector size), its worth the overhead to vectorize
+    if (a.length > 2 * SPECIES.length()) {
+      // vector loop is unrolled 4x (4 accumulators in parallel)
+      FloatVector sum1 = FloatVector.zero(SPECIES);
+      FloatVector sum2 = FloatVector.zero(SPECIES);
+      FloatVector sum3 = FloatVector.zero(SPECIES);
+      FloatVector sum4 = FloatVector.zero(SPECIES);
+      FloatVector norm1_1 = FloatVector.zero(SPECIES);
+      FloatVector norm1_2 = FloatVector.zero(SPECIES);
+      FloatVector norm1_3 = FloatVector.zero(SPECIES);
+      FloatVector norm1_4 = FloatVector.zero(SPECIES);
+      FloatVector norm2_1 = FloatVector.zero(SPECIES);
+      FloatVector norm2_2 = FloatVector.zero(SPECIES);
+      FloatVector norm2_3 = FloatVector.zero(SPECIES);
+      FloatVector norm2_4 = FloatVector.zero(SPECIES);
+      int upperBound = SPECIES.loopBound(a.length - 3*SPECIES.length());
+      for (; i < upperBound; i += 4 * SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+        FloatVector vb = EncodedDotProductBenchmark.fromBytes(b, offset + Float.BYTES * i);
+        sum1 = sum1.add(va.mul(vb));
+        norm1_1 = norm1_1.add(va.mul(va));
+        norm2_1 = norm2_1.add(vb.mul(vb));
+        FloatVector vc = FloatVector.fromArray(SPECIES, a, i + SPECIES.length());
+        FloatVector vd = EncodedDotProductBenchmark.fromBytes(b, offset + Float.BYTES * (i + SPECIES.length()));
+        sum2 = sum2.add(vc.mul(vd));
+        norm1_2 = norm1_2.add(vc.mul(vc));
+        norm2_2 = norm2_2.add(vd.mul(vd));
+        FloatVector ve = FloatVector.fromArray(SPECIES, a, i + 2*SPECIES.length());
+        FloatVector vf = EncodedDotProductBenchmark.fromBytes(b, offset + Float.BYTES * (i + 2*SPECIES.length()));
+        sum3 = sum3.add(ve.mul(vf));
+        norm1_3 = norm1_3.add(ve.mul(ve));
+        norm2_3 = norm2_3.add(vf.mul(vf));
+        FloatVector vg = FloatVector.fromArray(SPECIES, a, i + 3*SPECIES.length());
+        FloatVector vh = EncodedDotProductBenchmark.fromBytes(b, offset + Float.BYTES * (i + 3*SPECIES.length()));
+        sum4 = sum4.add(vg.mul(vh));
+        norm1_4 = norm1_4.add(vg.mul(vg));
+        norm2_4 = norm2_4.add(vh.mul(vh));
+      }
+      // vector tail: less scalar computations for unaligned sizes, esp with big vector sizes
+      upperBound = SPECIES.loopBound(a.length);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+        FloatVector vb = EncodedDotProductBenchmark.fromBytes(b, offset + Float.BYTES * i);
+        sum1 = sum1.add(va.mul(vb));
+        norm1_1 = norm1_1.add(va.mul(va));
+        norm2_1 = norm2_1.add(vb.mul(vb));
+      }
+      // reduce
+      FloatVector sumres1 = sum1.add(sum2);
+      FloatVector sumres2 = sum3.add(sum4);
+      FloatVector norm1res1 = norm1_1.add(norm1_2);
+      FloatVector norm1res2 = norm1_3.add(norm1_4);
+      FloatVector norm2res1 = norm2_1.add(norm2_2);
+      FloatVector norm2res2 = norm2_3.add(norm2_4);
+      sum += sumres1.add(sumres2).reduceLanes(VectorOperators.ADD);
+      norm1 += norm1res1.add(norm1res2).reduceLanes(VectorOperators.ADD);
+      norm2 += norm2res1.add(norm2res2).reduceLanes(VectorOperators.ADD);
+    }
+
+    for (; i < a.length; i++) {
+      float elem1 = a[i];
+      float elem2 = (float) EncodedDotProductBenchmark.FLOATS.get(b, offset + Float.BYTES * i);
+      sum += elem1 * elem2;
+      norm1 += elem1 * elem1;
+      norm2 += elem2 * elem2;
+    }
+    return (float) (sum / Math.sqrt(norm1 * norm2));
+  }
+
+  @Benchmark
+  public float cosineNew() {
+    return cosine(a, b, offset);
+  }
+
+  /** Decodes into a new {@code float[]} per document, then scores it. */
+  @Benchmark
+  public float cosineOld() {
+    float[] doc = new float[a.length];
+    EncodedDotProductBenchmark.decode(b, offset, doc);
+    floats.b = doc;
+    return floats.cosineNew();
+  }
+
+  /** Decodes into the same {@code float[]} every time, then scores it: the copy without the allocation. */
+  @Benchmark
+  public float cosineReused() {
+    EncodedDotProductBenchmark.decode(b, offset, scratch);
+    floats.b = scratch;
+    return floats.cosineNew();
+  }
+}
@@ -0,0 +1,182 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dot product against a document stored as little-endian floats inside a {@code byte[]} block,
+ * as in an index page, at a possibly unaligned byte offset. The zero-copy kernel loads the
+ * block's bytes directly into float lanes; the old way decodes the document into a
+ * {@code float[]} first, either freshly allocated or reused, and runs
+ * {@link FloatDotProductBenchmark#dotProductNew()} on it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class EncodedDotProductBenchmark {
+
+  float[] a;
+  byte[] b;
+
+  private FloatDotProductBenchmark floats;
+  private float[] scratch;
+
+  @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
+  //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
+  //@Param({"1024"})
+  int size;
+
+  /** Byte offset of the document in its block: anything but a multiple of 4 is unaligned. */
+  @Param({"0", "1"})
+  int offset;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    float[] doc;
+    if (dataset == null) {
+      a = new float[size];
+      doc = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        doc[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      doc = dataset.floats(dataset.randomOrd());
+    }
+    b = new byte[offset + Float.BYTES * size];
+    encode(doc, b, offset);
+    floats = new FloatDotProductBenchmark();
+    floats.a = a;
+    scratch = new float[size];
+    // order of ops may change, but try to detect broken shit
+    float expected = dotProductOld();
+    if (Math.abs(expected - dotProductNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+  // same bit size as SPECIES, so each load reinterprets to exactly one float vector
+  static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_MAX.withShape(SPECIES.vectorShape());
+
+  static final VarHandle FLOATS = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /** Writes {@code v} into {@code dest} at byte {@code offset}, as little-endian floats. */
+  static void encode(float[] v, byte[] dest, int offset) {
+    for (int i = 0; i < v.length; i++) {
+      FLOATS.set(dest, offset + Float.BYTES * i, v[i]);
+    }
+  }
+
+  /** Reads {@code dest.length} little-endian floats of {@code src} at byte {@code offset} into {@code dest}. */
+  static void decode(byte[] src, int offset, float[] dest) {
+    ByteBuffer.wrap(src, offset, Float.BYTES * dest.length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(dest);
+  }
+
+  /**
+   * Loads one float vector from little-endian bytes of {@code b} at byte {@code offset}, which
+   * needn't be aligned: the Vector API reinterprets lanes in little-endian order on any platform.
+   */
+  static FloatVector fromBytes(byte[] b, int offset) {
+    return ByteVector.fromArray(BYTE_SPECIES, b, offset).reinterpretAsFloats();
+  }
+
+  /**
+   * Dot product of {@code a} against the {@code a.length} little-endian floats of {@code b} at
+   * byte {@code offset}, without copying them out.
+   *
+   * @throws IndexOutOfBoundsException if {@code b} is too short.
+   */
+  static float dotProduct(float[] a, byte[] b, int offset) {
+    Objects.checkFromIndexSize(offset, Float.BYTES * a.length, b.length);
+    int i = 0;
+    float res = 0;
+    // if the array size is large (> 2x platform vector size), its worth the overhead to vectorize
+    if (a.length > 2 * SPECIES.length()) {
+      // vector loop is unrolled 4x (4 accumulators in parallel)
+      FloatVector acc1 = FloatVector.zero(SPECIES);
+      FloatVector acc2 = FloatVector.zero(SPECIES);
+      FloatVector acc3 = FloatVector.zero(SPECIES);
+      FloatVector acc4 = FloatVector.zero(SPECIES);
+      int upperBound = SPECIES.loopBound(a.length - 3*SPECIES.length());
+      for (; i < upperBound; i += 4 * SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+        FloatVector vb = fromBytes(b, offset + Float.BYTES * i);
+        acc1 = acc1.add(va.mul(vb));
+        FloatVector vc = FloatVector.fromArray(SPECIES, a, i + SPECIES.length());
+        FloatVector vd = fromBytes(b, offset + Float.BYTES * (i + SPECIES.length()));
+        acc2 = acc2.add(vc.mul(vd));
+        FloatVector ve = FloatVector.fromArray(SPECIES, a, i + 2*SPECIES.length());
+        FloatVector vf = fromBytes(b, offset + Float.BYTES * (i + 2*SPECIES.length()));
+        acc3 = acc3.add(ve.mul(vf));
+        FloatVector vg = FloatVector.fromArray(SPECIES, a, i + 3*SPECIES.length());
+        FloatVector vh = fromBytes(b, offset + Float.BYTES * (i + 3*SPECIES.length()));
+        acc4 = acc4.add(vg.mul(vh));
+      }
+      // vector tail: less scalar computations for unaligned sizes, esp with big vector sizes
+      upperBound = SPECIES.loopBound(a.length);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+        FloatVector vb = fromBytes(b, offset + Float.BYTES * i);
+        acc1 = acc1.add(va.mul(vb));
+      }
+      // reduce
+      FloatVector res1 = acc1.add(acc2);
+      FloatVector res2 = acc3.add(acc4);
+      res += res1.add(res2).reduceLanes(VectorOperators.ADD);
+    }
+
+    for (; i < a.length; i++) {
+      res += (float) FLOATS.get(b, offset + Float.BYTES * i) * a[i];
+    }
+    return res;
+  }
+
+  @Benchmark
+  public float dotProductNew() {
+    return dotProduct(a, b, offset);
+  }
+
+  /** Decodes into a new {@code float[]} per document, then scores it. */
+  @Benchmark
+  public float dotProductOld() {
+    float[] doc = new float[a.length];
+    decode(b, offset, doc);
+    floats.b = doc;
+    return floats.dotProductNew();
+  }
+
+  /** Decodes into the same {@code float[]} every time, then scores it: the copy without the allocation. */
+  @Benchmark
+  public float dotProductReused() {
+    decode(b, offset, scratch);
+    floats.b = scratch;
+    return floats.dotProductNew();
+  }
+}
@@ -0,0 +1,117 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtered brute-force search: dot products of a query with only the documents accepted by a
+ * filter bitset. The new way collects the accepted ords with {@link BitSetBenchmark#setBits},
+ * skipping empty stretches of the filter a vector at a time, and then scores them; the old way
+ * tests the filter bit of every ord. Scoring every document and dropping the rejected ones
+ * afterwards is the unfiltered baseline, the same at any selectivity.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class FilteredSearchBenchmark {
+
+  float[] query;
+  /** Documents, one row of {@code size} after the other. */
+  float[] docs;
+  long[] accept;
+  int[] ords;
+  float[] scores;
+
+  /** Number of documents. */
+  @Param({"100000"})
+  int count;
+
+  @Param({"128"})
+  int size;
+
+  /** Fraction of the documents accepted by the filter. */
+  @Param({"0.001", "0.01", "0.1", "0.5", "1"})
+  double selectivity;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    query = new float[size];
+    docs = new float[count * size];
+    if (dataset == null) {
+      for (int i = 0; i < size; i++) {
+        query[i] = ThreadLocalRandom.current().nextFloat();
+      }
+      for (int i = 0; i < docs.length; i++) {
+        docs[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      query = dataset.floats(dataset.randomOrd());
+      for (int ord = 0; ord < count; ord++) {
+        System.arraycopy(dataset.floats(ord % dataset.count()), 0, docs, ord * size, size);
+      }
+    }
+    accept = BitSetBenchmark.randomBits(count, selectivity);
+    ords = new int[count];
+    scores = new float[count];
+
+    int n = searchOld();
+    float[] expected = Arrays.copyOf(scores, n);
+    if (searchNew() != n || Arrays.equals(expected, Arrays.copyOf(scores, n)) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+    if (searchUnfiltered() != n || Arrays.equals(expected, Arrays.copyOf(scores, n)) == false) {
+      throw new RuntimeException("Unfiltered is wrong");
+    }
+  }
+
+  /** Scores the accepted documents into {@code scores}, their ords into {@code ords}, returns how many. */
+  @Benchmark
+  public int searchNew() {
+    int n = BitSetBenchmark.setBits(accept, ords);
+    for (int i = 0; i < n; i++) {
+      scores[i] = FloatDotProductBenchmark.dotProduct(query, docs, ords[i] * size);
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int searchOld() {
+    int n = 0;
+    for (int ord = 0; ord < count; ord++) {
+      if ((accept[ord >> 6] & (1L << ord)) != 0) {
+        ords[n] = ord;
+        scores[n++] = FloatDotProductBenchmark.dotProduct(query, docs, ord * size);
+      }
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int searchUnfiltered() {
+    int n = 0;
+    for (int ord = 0; ord < count; ord++) {
+      float score = FloatDotProductBenchmark.dotProduct(query, docs, ord * size);
+      if ((accept[ord >> 6] & (1L << ord)) != 0) {
+        ords[n] = ord;
+        scores[n++] = score;
+      }
+    }
+    return n;
+  }
+}
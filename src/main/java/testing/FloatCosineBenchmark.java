@@ -19,8 +19,8 @@ import jdk.incubator.vector.VectorSpecies;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class FloatCosineBenchmark {
 
-  private float[] a;
-  private float[] b;
+  float[] a;
+  float[] b;
 
   @Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -29,24 +29,48 @@ public class FloatCosineBenchmark {
   //@Param({"1024"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new float[size];
-    b = new float[size];
-    for (int i = 0; i < size; ++i) {
-      a[i] = ThreadLocalRandom.current().nextFloat();
-      b[i] = ThreadLocalRandom.current().nextFloat();
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      a = new float[size];
+      b = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        b[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = dataset.floats(dataset.randomOrd());
     }
     // order of ops may change, but try to detect broken shit
-    if (Math.abs(cosineOld() - cosineNew()) > 0.001f) {
+    float expected = cosineOld();
+    if (Math.abs(expected - cosineNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
       throw new RuntimeException("probably wrong");
     }
   }
 
-  static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
 
   @Benchmark
   public float cosineNew() {
+    return cosine(a, b);
+  }
+
+  /**
+   * Returns the cosine similarity of {@code a} and {@code b}: the kernel of
+   * {@link #cosineNew()}, which {@code PanamaVectorUtilSupport} runs too.
+   */
+  static float cosine(float[] a, float[] b) {
     if (a.length != b.length) {
       throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
     }
@@ -123,25 +147,52 @@ public class FloatCosineBenchmark {
     return (float) (sum / Math.sqrt(norm1 * norm2));
   }
 
-  @Benchmark
-  public float cosineOld() {
-    if (a.length != b.length) {
-      throw new IllegalArgumentException(
-          "vector dimensions differ: " + a.length + "!=" + b.length);
+  /**
+   * Returns the sum of squares of {@code length} floats of {@code v} starting at {@code offset},
+   * with the same unrolled loop as the norms of {@link #cosine}, for callers that only need the
+   * norm. {@link #cosine} keeps its own copy: it computes the dot product and both norms in one
+   * pass, and calling this would read each vector twice.
+   */
+  static float squareNorm(float[] v, int offset, int length) {
+    int i = 0;
+    float norm = 0;
+    // if the array size is large (> 2x platform vector size), its worth the overhead to vectorize
+    if (length > 2 * SPECIES.length()) {
+      // vector loop is unrolled 4x (4 accumulators in parallel)
+      FloatVector norm_1 = FloatVector.zero(SPECIES);
+      FloatVector norm_2 = FloatVector.zero(SPECIES);
+      FloatVector norm_3 = FloatVector.zero(SPECIES);
+      FloatVector norm_4 = FloatVector.zero(SPECIES);
+      int upperBound = SPECIES.loopBound(length - 3*SPECIES.length());
+      for (; i < upperBound; i += 4 * SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, v, offset + i);
+        norm_1 = norm_1.add(va.mul(va));
+        FloatVector vc = FloatVector.fromArray(SPECIES, v, offset + i + SPECIES.length());
+        norm_2 = norm_2.add(vc.mul(vc));
+        FloatVector ve = FloatVector.fromArray(SPECIES, v, offset + i + 2*SPECIES.length());
+        norm_3 = norm_3.add(ve.mul(ve));
+        FloatVector vg = FloatVector.fromArray(SPECIES, v, offset + i + 3*SPECIES.length());
+        norm_4 = norm_4.add(vg.mul(vg));
+      }
+      // vector tail: less scalar computations for unaligned sizes, esp with big vector sizes
+      upperBound = SPECIES.loopBound(length);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector va = FloatVector.fromArray(SPECIES, v, offset + i);
+        norm_1 = norm_1.add(va.mul(va));
+      }
+      // reduce
+      norm += norm_1.add(norm_2).add(norm_3.add(norm_4)).reduceLanes(VectorOperators.ADD);
     }
 
-    float sum = 0.0f;
-    float norm1 = 0.0f;
-    float norm2 = 0.0f;
-    int dim = a.length;
-
-    for (int i = 0; i < dim; i++) {
-      float elem1 = a[i];
-      float elem2 = b[i];
-      sum += elem1 * elem2;
-      norm1 += elem1 * elem1;
-      norm2 += elem2 * elem2;
+    for (; i < length; i++) {
+      float elem = v[offset + i];
+      norm += elem * elem;
     }
-    return (float) (sum / Math.sqrt(norm1 * norm2));
+    return norm;
+  }
+
+  @Benchmark
+  public float cosineOld() {
+    return DefaultVectorUtilSupport.scalarCosine(a, b);
   }
 }
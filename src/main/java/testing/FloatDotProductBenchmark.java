@@ -19,8 +19,8 @@ import jdk.incubator.vector.VectorSpecies;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class FloatDotProductBenchmark {
 
-  private float[] a;
-  private float[] b;
+  float[] a;
+  float[] b;
 
   @Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -28,23 +28,47 @@ public class FloatDotProductBenchmark {
   //@Param({"16", "32", "64"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new float[size];
-    b = new float[size];
-    for (int i = 0; i < size; ++i) {
-      a[i] = ThreadLocalRandom.current().nextFloat();
-      b[i] = ThreadLocalRandom.current().nextFloat();
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      a = new float[size];
+      b = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        b[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = dataset.floats(dataset.randomOrd());
     }
   }
 
-  static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
 
   @Benchmark
   public float dotProductNew() {
     if (a.length != b.length) {
       throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
     }
+    return dotProduct(a, b, 0);
+  }
+
+  /**
+   * Returns the dot product of {@code a} with the {@code a.length} floats of {@code b} starting at
+   * {@code offset}: the kernel of {@link #dotProductNew()}, which also takes vectors packed one
+   * after the other into one array.
+   */
+  static float dotProduct(float[] a, float[] b, int offset) {
     int i = 0;
     float res = 0;
     // if the array size is large (> 2x platform vector size), its worth the overhead to vectorize
@@ -57,23 +81,23 @@ public class FloatDotProductBenchmark {
       int upperBound = SPECIES.loopBound(a.length - 3*SPECIES.length());
       for (; i < upperBound; i += 4 * SPECIES.length()) {
         FloatVector va = FloatVector.fromArray(SPECIES, a, i);
-        FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+        FloatVector vb = FloatVector.fromArray(SPECIES, b, offset + i);
         acc1 = acc1.add(va.mul(vb));
         FloatVector vc = FloatVector.fromArray(SPECIES, a, i + SPECIES.length());
-        FloatVector vd = FloatVector.fromArray(SPECIES, b, i + SPECIES.length());
+        FloatVector vd = FloatVector.fromArray(SPECIES, b, offset + i + SPECIES.length());
         acc2 = acc2.add(vc.mul(vd));
         FloatVector ve = FloatVector.fromArray(SPECIES, a, i + 2*SPECIES.length());
-        FloatVector vf = FloatVector.fromArray(SPECIES, b, i + 2*SPECIES.length());
+        FloatVector vf = FloatVector.fromArray(SPECIES, b, offset + i + 2*SPECIES.length());
         acc3 = acc3.add(ve.mul(vf));
         FloatVector vg = FloatVector.fromArray(SPECIES, a, i + 3*SPECIES.length());
-        FloatVector vh = FloatVector.fromArray(SPECIES, b, i + 3*SPECIES.length());
+        FloatVector vh = FloatVector.fromArray(SPECIES, b, offset + i + 3*SPECIES.length());
         acc4 = acc4.add(vg.mul(vh));
       }
       // vector tail: less scalar computations for unaligned sizes, esp with big vector sizes
       upperBound = SPECIES.loopBound(a.length);
       for (; i < upperBound; i += SPECIES.length()) {
         FloatVector va = FloatVector.fromArray(SPECIES, a, i);
-        FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+        FloatVector vb = FloatVector.fromArray(SPECIES, b, offset + i);
         acc1 = acc1.add(va.mul(vb));
       }
       // reduce
@@ -83,77 +107,13 @@ public class FloatDotProductBenchmark {
     }
 
     for (; i < a.length; i++) {
-      res += b[i] * a[i];
+      res += b[offset + i] * a[i];
     }
     return res;
   }
 
   @Benchmark
   public float dotProductOld() {
-    if (a.length != b.length) {
-      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
-    }
-    float res = 0f;
-    /*
-     * If length of vector is larger than 8, we use unrolled dot product to accelerate the
-     * calculation.
-     */
-    int i;
-    for (i = 0; i < a.length % 8; i++) {
-      res += b[i] * a[i];
-    }
-    if (a.length < 8) {
-      return res;
-    }
-    for (; i + 31 < a.length; i += 32) {
-      res +=
-          b[i + 0] * a[i + 0]
-              + b[i + 1] * a[i + 1]
-              + b[i + 2] * a[i + 2]
-              + b[i + 3] * a[i + 3]
-              + b[i + 4] * a[i + 4]
-              + b[i + 5] * a[i + 5]
-              + b[i + 6] * a[i + 6]
-              + b[i + 7] * a[i + 7];
-      res +=
-          b[i + 8] * a[i + 8]
-              + b[i + 9] * a[i + 9]
-              + b[i + 10] * a[i + 10]
-              + b[i + 11] * a[i + 11]
-              + b[i + 12] * a[i + 12]
-              + b[i + 13] * a[i + 13]
-              + b[i + 14] * a[i + 14]
-              + b[i + 15] * a[i + 15];
-      res +=
-          b[i + 16] * a[i + 16]
-              + b[i + 17] * a[i + 17]
-              + b[i + 18] * a[i + 18]
-              + b[i + 19] * a[i + 19]
-              + b[i + 20] * a[i + 20]
-              + b[i + 21] * a[i + 21]
-              + b[i + 22] * a[i + 22]
-              + b[i + 23] * a[i + 23];
-      res +=
-          b[i + 24] * a[i + 24]
-              + b[i + 25] * a[i + 25]
-              + b[i + 26] * a[i + 26]
-              + b[i + 27] * a[i + 27]
-              + b[i + 28] * a[i + 28]
-              + b[i + 29] * a[i + 29]
-              + b[i + 30] * a[i + 30]
-              + b[i + 31] * a[i + 31];
-    }
-    for (; i + 7 < a.length; i += 8) {
-      res +=
-          b[i + 0] * a[i + 0]
-              + b[i + 1] * a[i + 1]
-              + b[i + 2] * a[i + 2]
-              + b[i + 3] * a[i + 3]
-              + b[i + 4] * a[i + 4]
-              + b[i + 5] * a[i + 5]
-              + b[i + 6] * a[i + 6]
-              + b[i + 7] * a[i + 7];
-    }
-    return res;
+    return DefaultVectorUtilSupport.scalarDotProduct(a, b);
   }
 }
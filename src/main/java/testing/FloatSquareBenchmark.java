@@ -19,8 +19,8 @@ import jdk.incubator.vector.VectorSpecies;
 @Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
 public class FloatSquareBenchmark {
 
-  private float[] a;
-  private float[] b;
+  float[] a;
+  float[] b;
 
   @Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100", "128", "207", "256", "300", "512", "702", "1024"})
   //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
@@ -29,24 +29,48 @@ public class FloatSquareBenchmark {
   //@Param({"1024"})
   int size;
 
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
   @Setup(Level.Trial)
   public void init() {
-    a = new float[size];
-    b = new float[size];
-    for (int i = 0; i < size; ++i) {
-      a[i] = ThreadLocalRandom.current().nextFloat();
-      b[i] = ThreadLocalRandom.current().nextFloat();
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      a = new float[size];
+      b = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        b[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = dataset.floats(dataset.randomOrd());
     }
     // order of ops may change, but try to detect broken shit
-    if (Math.abs(squareOld() - squareNew()) > 0.001f) {
+    float expected = squareOld();
+    if (Math.abs(expected - squareNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
       throw new RuntimeException("probably wrong");
     }
   }
 
-  static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
 
   @Benchmark
   public float squareNew() {
+    return squareDistance(a, b);
+  }
+
+  /**
+   * Returns the square distance of {@code a} and {@code b}: the kernel of {@link #squareNew()},
+   * which {@code PanamaVectorUtilSupport} runs too.
+   */
+  static float squareDistance(float[] a, float[] b) {
     if (a.length != b.length) {
       throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
     }
@@ -106,39 +130,6 @@ public class FloatSquareBenchmark {
    */
   @Benchmark
   public float squareOld() {
-    if (a.length != b.length) {
-      throw new IllegalArgumentException(
-          "vector dimensions differ: " + a.length + "!=" + b.length);
-    }
-    float squareSum = 0.0f;
-    int dim = a.length;
-    int i;
-    for (i = 0; i + 8 <= dim; i += 8) {
-      squareSum += squareDistanceUnrolled(a, b, i);
-    }
-    for (; i < dim; i++) {
-      float diff = a[i] - b[i];
-      squareSum += diff * diff;
-    }
-    return squareSum;
-  }
-
-  private static float squareDistanceUnrolled(float[] v1, float[] v2, int index) {
-    float diff0 = v1[index + 0] - v2[index + 0];
-    float diff1 = v1[index + 1] - v2[index + 1];
-    float diff2 = v1[index + 2] - v2[index + 2];
-    float diff3 = v1[index + 3] - v2[index + 3];
-    float diff4 = v1[index + 4] - v2[index + 4];
-    float diff5 = v1[index + 5] - v2[index + 5];
-    float diff6 = v1[index + 6] - v2[index + 6];
-    float diff7 = v1[index + 7] - v2[index + 7];
-    return diff0 * diff0
-        + diff1 * diff1
-        + diff2 * diff2
-        + diff3 * diff3
-        + diff4 * diff4
-        + diff5 * diff5
-        + diff6 * diff6
-        + diff7 * diff7;
+    return DefaultVectorUtilSupport.scalarSquareDistance(a, b);
   }
 }
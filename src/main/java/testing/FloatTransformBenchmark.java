@@ -0,0 +1,273 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import jdk.incubator.vector.VectorShape;
+
+/**
+ * Bulk ingest transforms over a batch of {@code count} vectors of {@code size} floats, stored
+ * contiguously: L2 normalization in place, int8 quantization and 1-bit sign packing.
+ * Throughput is reported per batch, the {@code vectors} counter reports vectors/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class FloatTransformBenchmark {
+
+  private float[] vectors;
+  private byte[] quantized;
+  private long[] signBits;
+
+  @Param({"128"})
+  //@Param({"100", "128", "207", "256", "300"})
+  int size;
+
+  @Param({"1000", "100000", "1000000"})
+  int count;
+
+  /**
+   * {@code random} (gaussian), {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}.
+   * The batch cycles through the dataset's vectors.
+   */
+  @Param({"random"})
+  String data;
+
+  /** Multiplier applied before rounding to int8; normalized values outside [-1, 1] get clamped. */
+  static final float SCALE = 127f;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long vectors;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      vectors = 0;
+    }
+  }
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    // check against the scalar versions on a small batch: a million vectors may not fit in the heap twice
+    FloatTransformBenchmark check = new FloatTransformBenchmark();
+    check.size = size;
+    check.count = Math.min(count, 1000);
+    check.data = data;
+    check.allocate();
+    check.verify();
+    allocate();
+  }
+
+  private void allocate() {
+    vectors = new float[size * count];
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      for (int i = 0; i < vectors.length; ++i) {
+        vectors[i] = (float) ThreadLocalRandom.current().nextGaussian();
+      }
+    } else {
+      for (int n = 0; n < count; n++) {
+        dataset.floatVector(n % dataset.count()).get(vectors, n * size, size);
+      }
+    }
+    quantized = new byte[size * count];
+    signBits = new long[words(size) * count];
+  }
+
+  private void verify() {
+    float[] original = vectors.clone();
+    normalizeOld();
+    float[] expected = vectors;
+    vectors = original;
+    normalizeNew();
+    for (int i = 0; i < vectors.length; i++) {
+      // order of ops may change, but try to detect broken shit
+      if (Math.abs(expected[i] - vectors[i]) > 0.001f) {
+        throw new RuntimeException("normalize probably wrong");
+      }
+    }
+    // scale up so that plenty of values get clamped
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] *= 16;
+    }
+    quantizeOld();
+    byte[] expectedQuantized = quantized.clone();
+    quantizeNew();
+    if (Arrays.equals(expectedQuantized, quantized) == false) {
+      throw new RuntimeException("quantize is wrong");
+    }
+    binarizeOld();
+    long[] expectedBits = signBits.clone();
+    binarizeNew();
+    if (Arrays.equals(expectedBits, signBits) == false) {
+      throw new RuntimeException("binarize is wrong");
+    }
+  }
+
+  /** Number of longs needed to hold one bit per dimension. */
+  static int words(int size) {
+    return (size + 63) >>> 6;
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+  // floats narrow 4x into byte lanes, so store a quarter of the float vector's bits (at least 64)
+  static final VectorSpecies<Byte> BYTE_SPECIES =
+      ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(Math.max(64, SPECIES.vectorBitSize() >> 2)));
+
+  @Benchmark
+  public void normalizeNew(Counters counters) {
+    normalizeNew();
+    counters.vectors += count;
+  }
+
+  @Benchmark
+  public void normalizeOld(Counters counters) {
+    normalizeOld();
+    counters.vectors += count;
+  }
+
+  @Benchmark
+  public void quantizeNew(Counters counters) {
+    quantizeNew();
+    counters.vectors += count;
+  }
+
+  @Benchmark
+  public void quantizeOld(Counters counters) {
+    quantizeOld();
+    counters.vectors += count;
+  }
+
+  @Benchmark
+  public void binarizeNew(Counters counters) {
+    binarizeNew();
+    counters.vectors += count;
+  }
+
+  @Benchmark
+  public void binarizeOld(Counters counters) {
+    binarizeOld();
+    counters.vectors += count;
+  }
+
+  /** Scales every vector to unit length in place, zero vectors are left alone. */
+  void normalizeNew() {
+    for (int offset = 0; offset < vectors.length; offset += size) {
+      float norm = FloatCosineBenchmark.squareNorm(vectors, offset, size);
+      if (norm == 0) {
+        continue;
+      }
+      float inv = (float) (1 / Math.sqrt(norm));
+      int i = 0;
+      int upperBound = SPECIES.loopBound(size);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector.fromArray(SPECIES, vectors, offset + i).mul(inv).intoArray(vectors, offset + i);
+      }
+      for (; i < size; i++) {
+        vectors[offset + i] *= inv;
+      }
+    }
+  }
+
+  void normalizeOld() {
+    for (int offset = 0; offset < vectors.length; offset += size) {
+      float norm = 0;
+      for (int i = 0; i < size; i++) {
+        float elem = vectors[offset + i];
+        norm += elem * elem;
+      }
+      if (norm == 0) {
+        continue;
+      }
+      float inv = (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < size; i++) {
+        vectors[offset + i] *= inv;
+      }
+    }
+  }
+
+  /**
+   * Quantizes each value to {@code round(clamp(v * SCALE, -127, 127))}. Rounding is done by
+   * biasing into the positive range and truncating, since there's no lanewise round.
+   */
+  void quantizeNew() {
+    int i = 0;
+    // narrowing to fewer than 8 byte lanes would need partial stores, so 128-bit floats stay scalar
+    if (SPECIES.vectorBitSize() >= 256) {
+      int upperBound = SPECIES.loopBound(vectors.length);
+      for (; i < upperBound; i += SPECIES.length()) {
+        FloatVector v = FloatVector.fromArray(SPECIES, vectors, i);
+        FloatVector biased = v.mul(SCALE).max(-127f).min(127f).add(128.5f);
+        // truncate to int, then narrow to bytes and remove the bias
+        ByteVector q = (ByteVector) biased.convert(VectorOperators.F2I, 0)
+            .convertShape(VectorOperators.I2B, BYTE_SPECIES, 0);
+        q.sub((byte) 128).intoArray(quantized, i);
+      }
+    }
+    for (; i < vectors.length; i++) {
+      quantized[i] = quantize(vectors[i]);
+    }
+  }
+
+  void quantizeOld() {
+    for (int i = 0; i < vectors.length; i++) {
+      quantized[i] = quantize(vectors[i]);
+    }
+  }
+
+  private static byte quantize(float v) {
+    float clamped = Math.min(127f, Math.max(-127f, v * SCALE));
+    return (byte) ((int) (clamped + 128.5f) - 128);
+  }
+
+  /** Packs the sign of each dimension (1 if positive) into {@link #words(int)} longs per vector. */
+  void binarizeNew() {
+    final int words = words(size);
+    int out = 0;
+    for (int offset = 0; offset < vectors.length; offset += size, out += words) {
+      Arrays.fill(signBits, out, out + words, 0L);
+      int i = 0;
+      // species lane counts are powers of two <= 64, so a mask never straddles two longs
+      int upperBound = SPECIES.loopBound(size);
+      for (; i < upperBound; i += SPECIES.length()) {
+        VectorMask<Float> positive = FloatVector.fromArray(SPECIES, vectors, offset + i).compare(VectorOperators.GT, 0f);
+        signBits[out + (i >>> 6)] |= positive.toLong() << (i & 63);
+      }
+      for (; i < size; i++) {
+        if (vectors[offset + i] > 0) {
+          signBits[out + (i >>> 6)] |= 1L << i;
+        }
+      }
+    }
+  }
+
+  void binarizeOld() {
+    final int words = words(size);
+    int out = 0;
+    for (int offset = 0; offset < vectors.length; offset += size, out += words) {
+      Arrays.fill(signBits, out, out + words, 0L);
+      for (int i = 0; i < size; i++) {
+        if (vectors[offset + i] > 0) {
+          signBits[out + (i >>> 6)] |= 1L << i;
+        }
+      }
+    }
+  }
+}
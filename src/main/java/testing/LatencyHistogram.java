@@ -0,0 +1,71 @@
+package testing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, safe to record into from any number of
+ * threads. Buckets are log-linear, like HdrHistogram's: values below 64 get a bucket each, and
+ * every further power of two is split into 32 buckets, so a percentile is within about 3% of the
+ * recorded value, and all of {@code long} fits in 1888 buckets.
+ */
+final class LatencyHistogram {
+
+  /** log2 of the number of buckets per power of two. */
+  static final int SUB_BITS = 5;
+  static final int SUB_COUNT = 1 << SUB_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BITS) * SUB_COUNT);
+
+  /** Records one latency, negative ones count as 0. */
+  void record(long nanos) {
+    counts.incrementAndGet(bucket(Math.max(0, nanos)));
+  }
+
+  static int bucket(long value) {
+    int shift = Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+    return (shift << SUB_BITS) + (int) (value >>> shift);
+  }
+
+  /** Returns the highest value of {@code bucket}. */
+  static long highestValue(int bucket) {
+    int shift = Math.max(0, (bucket >>> SUB_BITS) - 1);
+    return ((long) (bucket - (shift << SUB_BITS) + 1) << shift) - 1;
+  }
+
+  long count() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the value at or below which {@code percentile} percent of the recorded values are,
+   * rounded up to the highest value of its bucket, or 0 if nothing was recorded. Values recorded
+   * concurrently may or may not be taken into account.
+   */
+  long percentile(double percentile) {
+    long[] snapshot = new long[counts.length()];
+    long count = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return highestValue(i);
+      }
+    }
+    return 0;
+  }
+
+  void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+  }
+}
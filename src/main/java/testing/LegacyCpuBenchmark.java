@@ -0,0 +1,123 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the byte and bit count kernels as they behave on older hardware: {@code -XX:UseAVX=0}
+ * leaves 128-bit SSE vectors, so {@code IS_AMD64_WITHOUT_AVX2} is true and the {@code *New}
+ * kernels take their scalar fallbacks, and {@code -XX:-UsePopCountInstruction} takes away popcnt.
+ * The {@code *Swar} kernels are the {@link Swar} alternatives to those fallbacks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"}, jvmArgsAppend = {"-XX:UseAVX=0", "-XX:-UsePopCountInstruction"})
+public class LegacyCpuBenchmark {
+
+  private BinaryDotProductBenchmark dotProduct;
+  private BinarySquareBenchmark square;
+  private BinaryCosineBenchmark cosine;
+  private BitCountBenchmark bitCount;
+
+  @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
+  int size;
+
+  /**
+   * {@code random} or {@code clustered}, passed on to each kernel's benchmark, see
+   * {@link Dataset#forBenchmark}: they read files of different formats, so not a file's path.
+   */
+  @Param({"random"})
+  String data;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    if (data.equals("random") == false && data.equals("clustered") == false) {
+      throw new IllegalArgumentException("data must be random or clustered: " + data);
+    }
+    dotProduct = new BinaryDotProductBenchmark();
+    dotProduct.size = size;
+    dotProduct.data = data;
+    dotProduct.init();
+    square = new BinarySquareBenchmark();
+    square.size = size;
+    square.data = data;
+    square.init();
+    cosine = new BinaryCosineBenchmark();
+    cosine.size = size;
+    cosine.data = data;
+    cosine.init();
+    bitCount = new BitCountBenchmark();
+    bitCount.size = size;
+    bitCount.data = data;
+    bitCount.init();
+  }
+
+  @Benchmark
+  public int dotProductNew() {
+    return dotProduct.dotProductNew();
+  }
+
+  @Benchmark
+  public int dotProductOld() {
+    return dotProduct.dotProductOld();
+  }
+
+  @Benchmark
+  public int dotProductSwar() {
+    return dotProduct.dotProductSwar();
+  }
+
+  @Benchmark
+  public int squareDistanceNew() {
+    return square.squareDistanceNew();
+  }
+
+  @Benchmark
+  public int squareDistanceOld() {
+    return square.squareDistanceOld();
+  }
+
+  @Benchmark
+  public int squareDistanceSwar() {
+    return square.squareDistanceSwar();
+  }
+
+  @Benchmark
+  public float cosineDistanceNew() {
+    return cosine.cosineDistanceNew();
+  }
+
+  @Benchmark
+  public float cosineDistanceOld() {
+    return cosine.cosineDistanceOld();
+  }
+
+  @Benchmark
+  public float cosineDistanceSwar() {
+    return cosine.cosineDistanceSwar();
+  }
+
+  @Benchmark
+  public int bitCountNew() {
+    return bitCount.bitCountNew();
+  }
+
+  @Benchmark
+  public int bitCountOld() {
+    return bitCount.bitCountOld();
+  }
+
+  @Benchmark
+  public int bitCountSwar() {
+    return bitCount.bitCountSwar();
+  }
+}
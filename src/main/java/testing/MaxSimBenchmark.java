@@ -0,0 +1,341 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Late-interaction (MaxSim) scoring, as in ColBERT re-ranking: query and document are sets of
+ * token vectors, and the score is the sum over query tokens of their best dot product against
+ * any document token. Compared against pairwise calls of {@link FloatDotProductBenchmark#dotProductNew()}
+ * and {@link BinaryDotProductBenchmark#dotProductNew()}.
+ * <p>
+ * The new kernels take the document as a packed token matrix, see {@link #pack}: blocks of one
+ * vector's worth of tokens, dimension-major, so that lane {@code j} accumulates the dot product
+ * with token {@code j} of the block. Then no dot product needs a horizontal reduction, the
+ * running max is a lane-wise max, and each document load is shared by 4 query tokens.
+ * <p>
+ * Int8 tokens share one scale per matrix, so the best token is found on the integer dot
+ * products and the integer score is returned unscaled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class MaxSimBenchmark {
+
+  /** Query tokens, one row of {@code size} after the other. */
+  float[] query;
+  /** Document tokens, packed. */
+  float[] doc;
+  byte[] queryBytes;
+  byte[] docBytes;
+
+  // the same tokens, one array each, for the pairwise baselines
+  private float[][] queryTokens;
+  private float[][] docTokens;
+  private byte[][] queryByteTokens;
+  private byte[][] docByteTokens;
+  private FloatDotProductBenchmark floats;
+  private BinaryDotProductBenchmark binary;
+
+  /** Dimension of the token vectors. */
+  @Param({"128"})
+  int size;
+
+  @Param({"32"})
+  int queryCount;
+
+  @Param({"180"})
+  int docCount;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    query = tokens(dataset, queryCount);
+    float[] rows = tokens(dataset, docCount);
+    queryBytes = new byte[query.length];
+    byte[] byteRows = new byte[rows.length];
+    MixedDotProductBenchmark.quantize(query, queryBytes);
+    MixedDotProductBenchmark.quantize(rows, byteRows);
+    doc = pack(rows, size);
+    docBytes = pack(byteRows, size);
+
+    queryTokens = new float[queryCount][];
+    queryByteTokens = new byte[queryCount][];
+    for (int q = 0; q < queryCount; q++) {
+      queryTokens[q] = Arrays.copyOfRange(query, q * size, (q + 1) * size);
+      queryByteTokens[q] = Arrays.copyOfRange(queryBytes, q * size, (q + 1) * size);
+    }
+    docTokens = new float[docCount][];
+    docByteTokens = new byte[docCount][];
+    for (int d = 0; d < docCount; d++) {
+      docTokens[d] = Arrays.copyOfRange(rows, d * size, (d + 1) * size);
+      docByteTokens[d] = Arrays.copyOfRange(byteRows, d * size, (d + 1) * size);
+    }
+    floats = new FloatDotProductBenchmark();
+    binary = new BinaryDotProductBenchmark();
+
+    // order of ops may change, but try to detect broken shit
+    float expected = maxSimOld();
+    if (Math.abs(expected - maxSimNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+    if (maxSimBytesNew() != maxSimBytesOld()) {
+      throw new RuntimeException("New is wrong");
+    }
+  }
+
+  /** Returns {@code count} unit-length tokens, as rows: random, or random rows of the dataset. */
+  private float[] tokens(Dataset dataset, int count) {
+    float[] tokens = new float[count * size];
+    for (int t = 0; t < count; t++) {
+      float norm = 0;
+      float[] row = dataset == null ? null : dataset.floats(dataset.randomOrd());
+      for (int i = 0; i < size; i++) {
+        float v = row == null ? (float) ThreadLocalRandom.current().nextGaussian() : row[i];
+        tokens[t * size + i] = v;
+        norm += v * v;
+      }
+      // token embeddings of late-interaction models are normalized
+      float scale = norm == 0 ? 1 : (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < size; i++) {
+        tokens[t * size + i] *= scale;
+      }
+    }
+    return tokens;
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+  static final VectorSpecies<Integer> INT_SPECIES = VectorShapes.INT;
+  // one byte per int lane: a quarter of the int vector's bits, which doesn't exist below 256 bits
+  static final VectorSpecies<Byte> BYTE_SPECIES = INT_SPECIES.vectorBitSize() >= 256
+      ? ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(INT_SPECIES.vectorBitSize() >> 2))
+      : null;
+
+  /**
+   * Packs tokens given as rows of {@code dim} floats for {@link #maxSim}: into blocks of
+   * {@code SPECIES.length()} tokens, where block {@code b} holds dimension {@code i} of its
+   * tokens at {@code (b * dim + i) * SPECIES.length()}. The last block is padded with zeros.
+   */
+  static float[] pack(float[] rows, int dim) {
+    int lanes = SPECIES.length();
+    int count = rows.length / dim;
+    float[] packed = new float[(count + lanes - 1) / lanes * lanes * dim];
+    for (int t = 0; t < count; t++) {
+      int start = t / lanes * lanes * dim + t % lanes;
+      for (int i = 0; i < dim; i++) {
+        packed[start + i * lanes] = rows[t * dim + i];
+      }
+    }
+    return packed;
+  }
+
+  /** Packs tokens given as rows of {@code dim} bytes for {@link #maxSimBytes}, like {@link #pack(float[], int)} but with int lanes. */
+  static byte[] pack(byte[] rows, int dim) {
+    int lanes = INT_SPECIES.length();
+    int count = rows.length / dim;
+    byte[] packed = new byte[(count + lanes - 1) / lanes * lanes * dim];
+    for (int t = 0; t < count; t++) {
+      int start = t / lanes * lanes * dim + t % lanes;
+      for (int i = 0; i < dim; i++) {
+        packed[start + i * lanes] = rows[t * dim + i];
+      }
+    }
+    return packed;
+  }
+
+  @Benchmark
+  public float maxSimNew() {
+    return maxSim(query, doc, docCount, size);
+  }
+
+  @Benchmark
+  public float maxSimOld() {
+    float res = 0;
+    for (float[] queryToken : queryTokens) {
+      floats.a = queryToken;
+      float max = Float.NEGATIVE_INFINITY;
+      for (float[] docToken : docTokens) {
+        floats.b = docToken;
+        max = Math.max(max, floats.dotProductNew());
+      }
+      res += max;
+    }
+    return res;
+  }
+
+  @Benchmark
+  public int maxSimBytesNew() {
+    return maxSimBytes(queryBytes, docBytes, docCount, size);
+  }
+
+  @Benchmark
+  public int maxSimBytesOld() {
+    int res = 0;
+    for (byte[] queryToken : queryByteTokens) {
+      binary.a = queryToken;
+      int max = Integer.MIN_VALUE;
+      for (byte[] docToken : docByteTokens) {
+        binary.b = docToken;
+        max = Math.max(max, binary.dotProductNew());
+      }
+      res += max;
+    }
+    return res;
+  }
+
+  /**
+   * Returns the sum over the query's tokens, rows of {@code dim} floats, of the best dot product
+   * with any of the {@code docCount} document tokens, packed by {@link #pack(float[], int)}.
+   */
+  static float maxSim(float[] query, float[] doc, int docCount, int dim) {
+    int queryCount = query.length / dim;
+    int lanes = SPECIES.length();
+    int blockSize = lanes * dim;
+    float res = 0;
+    int q = 0;
+    // 4 query tokens at a time: each document vector load is used 4 times
+    for (; q + 4 <= queryCount; q += 4) {
+      int q0 = q * dim;
+      int q1 = q0 + dim;
+      int q2 = q1 + dim;
+      int q3 = q2 + dim;
+      FloatVector max0 = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+      FloatVector max1 = max0;
+      FloatVector max2 = max0;
+      FloatVector max3 = max0;
+      for (int t = 0, start = 0; t < docCount; t += lanes, start += blockSize) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        FloatVector acc3 = FloatVector.zero(SPECIES);
+        for (int i = 0; i < dim; i++) {
+          FloatVector vd = FloatVector.fromArray(SPECIES, doc, start + i * lanes);
+          acc0 = acc0.add(vd.mul(query[q0 + i]));
+          acc1 = acc1.add(vd.mul(query[q1 + i]));
+          acc2 = acc2.add(vd.mul(query[q2 + i]));
+          acc3 = acc3.add(vd.mul(query[q3 + i]));
+        }
+        // padding lanes of the last block must not win
+        VectorMask<Float> tokens = SPECIES.indexInRange(t, docCount);
+        max0 = max0.lanewise(VectorOperators.MAX, acc0, tokens);
+        max1 = max1.lanewise(VectorOperators.MAX, acc1, tokens);
+        max2 = max2.lanewise(VectorOperators.MAX, acc2, tokens);
+        max3 = max3.lanewise(VectorOperators.MAX, acc3, tokens);
+      }
+      res += max0.reduceLanes(VectorOperators.MAX) + max1.reduceLanes(VectorOperators.MAX)
+          + max2.reduceLanes(VectorOperators.MAX) + max3.reduceLanes(VectorOperators.MAX);
+    }
+    // remaining query tokens one at a time
+    for (; q < queryCount; q++) {
+      int q0 = q * dim;
+      FloatVector max = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+      for (int t = 0, start = 0; t < docCount; t += lanes, start += blockSize) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        for (int i = 0; i < dim; i++) {
+          acc = acc.add(FloatVector.fromArray(SPECIES, doc, start + i * lanes).mul(query[q0 + i]));
+        }
+        max = max.lanewise(VectorOperators.MAX, acc, SPECIES.indexInRange(t, docCount));
+      }
+      res += max.reduceLanes(VectorOperators.MAX);
+    }
+    return res;
+  }
+
+  /**
+   * Returns the sum over the query's tokens, rows of {@code dim} signed bytes, of the best dot
+   * product with any of the {@code docCount} document tokens, packed by {@link #pack(byte[], int)}.
+   */
+  static int maxSimBytes(byte[] query, byte[] doc, int docCount, int dim) {
+    int queryCount = query.length / dim;
+    int lanes = INT_SPECIES.length();
+    int blockSize = lanes * dim;
+    int res = 0;
+    int q = 0;
+    // we need at least 256-bit vectors, to widen one byte per int lane
+    if (BYTE_SPECIES != null && IS_AMD64_WITHOUT_AVX2 == false) {
+      // 4 query tokens at a time: each document vector is loaded and widened once per 4 products
+      for (; q + 4 <= queryCount; q += 4) {
+        int q0 = q * dim;
+        int q1 = q0 + dim;
+        int q2 = q1 + dim;
+        int q3 = q2 + dim;
+        IntVector max0 = IntVector.broadcast(INT_SPECIES, Integer.MIN_VALUE);
+        IntVector max1 = max0;
+        IntVector max2 = max0;
+        IntVector max3 = max0;
+        for (int t = 0, start = 0; t < docCount; t += lanes, start += blockSize) {
+          IntVector acc0 = IntVector.zero(INT_SPECIES);
+          IntVector acc1 = IntVector.zero(INT_SPECIES);
+          IntVector acc2 = IntVector.zero(INT_SPECIES);
+          IntVector acc3 = IntVector.zero(INT_SPECIES);
+          for (int i = 0; i < dim; i++) {
+            IntVector vd = (IntVector) ByteVector.fromArray(BYTE_SPECIES, doc, start + i * lanes)
+                .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+            acc0 = acc0.add(vd.mul(query[q0 + i]));
+            acc1 = acc1.add(vd.mul(query[q1 + i]));
+            acc2 = acc2.add(vd.mul(query[q2 + i]));
+            acc3 = acc3.add(vd.mul(query[q3 + i]));
+          }
+          if (t + lanes > docCount) {
+            // padding lanes of the last block must not win: a masked lanewise MAX, as in maxSim,
+            // crashes C2 for int lanes on JDK 21.0.1 (SIGFPE in the assembler)
+            VectorMask<Integer> padding = INT_SPECIES.indexInRange(t, docCount).not();
+            acc0 = acc0.blend(Integer.MIN_VALUE, padding);
+            acc1 = acc1.blend(Integer.MIN_VALUE, padding);
+            acc2 = acc2.blend(Integer.MIN_VALUE, padding);
+            acc3 = acc3.blend(Integer.MIN_VALUE, padding);
+          }
+          // lanewise here rather than max(): once per dim products, the call inside IntVector.max
+          // has no type profile when C2 compiles this, doesn't inline, and boxes the vectors
+          max0 = max0.lanewise(VectorOperators.MAX, acc0);
+          max1 = max1.lanewise(VectorOperators.MAX, acc1);
+          max2 = max2.lanewise(VectorOperators.MAX, acc2);
+          max3 = max3.lanewise(VectorOperators.MAX, acc3);
+        }
+        res += max0.reduceLanes(VectorOperators.MAX) + max1.reduceLanes(VectorOperators.MAX)
+            + max2.reduceLanes(VectorOperators.MAX) + max3.reduceLanes(VectorOperators.MAX);
+      }
+    }
+    // remaining query tokens one at a time
+    for (; q < queryCount; q++) {
+      int q0 = q * dim;
+      int max = Integer.MIN_VALUE;
+      for (int t = 0; t < docCount; t++) {
+        int start = t / lanes * blockSize + t % lanes;
+        int dot = 0;
+        for (int i = 0; i < dim; i++) {
+          dot += query[q0 + i] * doc[start + i * lanes];
+        }
+        max = Math.max(max, dot);
+      }
+      res += max;
+    }
+    return res;
+  }
+}
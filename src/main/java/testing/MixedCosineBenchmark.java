@@ -0,0 +1,188 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import jdk.incubator.vector.VectorShape;
+
+/**
+ * Asymmetric cosine: the query stays a {@code float[]}, the document is quantized to a
+ * {@code byte[]}. The per-document scale cancels out of the cosine, so unlike the dot product
+ * and square distance kernels it is not applied. Compared against the symmetric kernels of
+ * {@link FloatCosineBenchmark} and {@link BinaryCosineBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class MixedCosineBenchmark {
+
+  float[] a;
+  byte[] b;
+
+  private FloatCosineBenchmark floats;
+  private BinaryCosineBenchmark binary;
+
+  @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
+  //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
+  //@Param({"1024"})
+  int size;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      a = new float[size];
+      b = new byte[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+      }
+      ThreadLocalRandom.current().nextBytes(b);
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = new byte[size];
+      MixedDotProductBenchmark.quantize(dataset.floats(dataset.randomOrd()), b);
+    }
+    // order of ops may change, but try to detect broken shit
+    float expected = cosineOld();
+    if (Math.abs(expected - cosineNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+    floats = new FloatCosineBenchmark();
+    floats.size = size;
+    floats.data = data;
+    floats.init();
+    binary = new BinaryCosineBenchmark();
+    binary.size = size;
+    // the byte baseline needs a .bvecs file, which exists only for the generated dataset
+    binary.data = data.equals("clustered") ? data : "random";
+    binary.init();
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+  // bytes widen 4x into float lanes, so load a quarter of the float vector's bits (at least 64)
+  static final VectorSpecies<Byte> BYTE_SPECIES =
+      ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(Math.max(64, SPECIES.vectorBitSize() >> 2)));
+
+  @Benchmark
+  public float cosineNew() {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    int i = 0;
+    float sum = 0;
+    float norm1 = 0;
+    float norm2 = 0;
+    final int vectorSize = SPECIES.vectorBitSize();
+    // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
+    if (a.length >= BYTE_SPECIES.length() && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      if (vectorSize >= 256) {
+        // 256/512 bit implementation, each 8/16 byte load widens to exactly one float vector
+        int upperBound = BYTE_SPECIES.loopBound(a.length);
+        FloatVector accSum = FloatVector.zero(SPECIES);
+        FloatVector accNorm1 = FloatVector.zero(SPECIES);
+        FloatVector accNorm2 = FloatVector.zero(SPECIES);
+        for (; i < upperBound; i += BYTE_SPECIES.length()) {
+          ByteVector vb8 = ByteVector.fromArray(BYTE_SPECIES, b, i);
+          FloatVector vb = (FloatVector) vb8.convertShape(VectorOperators.B2F, SPECIES, 0);
+          FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+          accSum = accSum.add(va.mul(vb));
+          accNorm1 = accNorm1.add(va.mul(va));
+          accNorm2 = accNorm2.add(vb.mul(vb));
+        }
+        // reduce
+        sum += accSum.reduceLanes(VectorOperators.ADD);
+        norm1 += accNorm1.reduceLanes(VectorOperators.ADD);
+        norm2 += accNorm2.reduceLanes(VectorOperators.ADD);
+      } else {
+        // 128-bit implementation, which must "split up" the 8 byte load into two float vectors
+        int upperBound = ByteVector.SPECIES_64.loopBound(a.length);
+        FloatVector accSum1 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector accSum2 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector accNorm1_1 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector accNorm1_2 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector accNorm2_1 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector accNorm2_2 = FloatVector.zero(FloatVector.SPECIES_128);
+        for (; i < upperBound; i += ByteVector.SPECIES_64.length()) {
+          ByteVector vb8 = ByteVector.fromArray(ByteVector.SPECIES_64, b, i);
+          FloatVector vb1 = (FloatVector) vb8.convertShape(VectorOperators.B2F, FloatVector.SPECIES_128, 0);
+          FloatVector vb2 = (FloatVector) vb8.convertShape(VectorOperators.B2F, FloatVector.SPECIES_128, 1);
+          FloatVector va1 = FloatVector.fromArray(FloatVector.SPECIES_128, a, i);
+          FloatVector va2 = FloatVector.fromArray(FloatVector.SPECIES_128, a, i + FloatVector.SPECIES_128.length());
+          accSum1 = accSum1.add(va1.mul(vb1));
+          accSum2 = accSum2.add(va2.mul(vb2));
+          accNorm1_1 = accNorm1_1.add(va1.mul(va1));
+          accNorm1_2 = accNorm1_2.add(va2.mul(va2));
+          accNorm2_1 = accNorm2_1.add(vb1.mul(vb1));
+          accNorm2_2 = accNorm2_2.add(vb2.mul(vb2));
+        }
+        // reduce
+        sum += accSum1.add(accSum2).reduceLanes(VectorOperators.ADD);
+        norm1 += accNorm1_1.add(accNorm1_2).reduceLanes(VectorOperators.ADD);
+        norm2 += accNorm2_1.add(accNorm2_2).reduceLanes(VectorOperators.ADD);
+      }
+    }
+
+    for (; i < a.length; i++) {
+      float elem1 = a[i];
+      float elem2 = b[i];
+      sum += elem1 * elem2;
+      norm1 += elem1 * elem1;
+      norm2 += elem2 * elem2;
+    }
+    return (float) (sum / Math.sqrt((double) norm1 * (double) norm2));
+  }
+
+  /** Returns the cosine similarity between a float query and a signed byte document. */
+  @Benchmark
+  public float cosineOld() {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    float sum = 0f;
+    float norm1 = 0f;
+    float norm2 = 0f;
+
+    for (int i = 0; i < a.length; i++) {
+      float elem1 = a[i];
+      float elem2 = b[i];
+      sum += elem1 * elem2;
+      norm1 += elem1 * elem1;
+      norm2 += elem2 * elem2;
+    }
+    return (float) (sum / Math.sqrt((double) norm1 * (double) norm2));
+  }
+
+  /** Symmetric float x float baseline, see {@link FloatCosineBenchmark#cosineNew()}. */
+  @Benchmark
+  public float floatCosineNew() {
+    return floats.cosineNew();
+  }
+
+  /** Symmetric byte x byte baseline, see {@link BinaryCosineBenchmark#cosineDistanceNew()}. */
+  @Benchmark
+  public float binaryCosineDistanceNew() {
+    return binary.cosineDistanceNew();
+  }
+}
@@ -0,0 +1,169 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import jdk.incubator.vector.VectorShape;
+
+/**
+ * Asymmetric square distance: the query stays a {@code float[]}, the document is quantized
+ * to a {@code byte[]} with a per-document scale. Compared against the symmetric kernels
+ * of {@link FloatSquareBenchmark} and {@link BinarySquareBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class MixedSquareBenchmark {
+
+  float[] a;
+  byte[] b;
+  float scale;
+
+  private FloatSquareBenchmark floats;
+  private BinarySquareBenchmark binary;
+
+  @Param({"1", "128", "207", "256", "300", "512", "702", "1024"})
+  //@Param({"1", "4", "6", "8", "13", "16", "25", "32", "64", "100" })
+  //@Param({"1024"})
+  int size;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  private static final boolean IS_AMD64_WITHOUT_AVX2 =
+      System.getProperty("os.arch").equals("amd64") && IntVector.SPECIES_PREFERRED.vectorBitSize() < 256;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      a = new float[size];
+      b = new byte[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+      }
+      ThreadLocalRandom.current().nextBytes(b);
+      scale = ThreadLocalRandom.current().nextFloat() / 127f;
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = new byte[size];
+      scale = MixedDotProductBenchmark.quantize(dataset.floats(dataset.randomOrd()), b);
+    }
+    // order of ops may change, but try to detect broken shit
+    float expected = squareOld();
+    if (Math.abs(expected - squareNew()) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+    floats = new FloatSquareBenchmark();
+    floats.size = size;
+    floats.data = data;
+    floats.init();
+    binary = new BinarySquareBenchmark();
+    binary.size = size;
+    // the byte baseline needs a .bvecs file, which exists only for the generated dataset
+    binary.data = data.equals("clustered") ? data : "random";
+    binary.init();
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+  // bytes widen 4x into float lanes, so load a quarter of the float vector's bits (at least 64)
+  static final VectorSpecies<Byte> BYTE_SPECIES =
+      ByteVector.SPECIES_MAX.withShape(VectorShape.forBitSize(Math.max(64, SPECIES.vectorBitSize() >> 2)));
+
+  @Benchmark
+  public float squareNew() {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    int i = 0;
+    float res = 0;
+    final int vectorSize = SPECIES.vectorBitSize();
+    // only vectorize if we'll at least enter the loop a single time, and we have at least 128-bit vectors
+    if (a.length >= BYTE_SPECIES.length() && vectorSize >= 128 && IS_AMD64_WITHOUT_AVX2 == false) {
+      if (vectorSize >= 256) {
+        // 256/512 bit implementation, each 8/16 byte load widens to exactly one float vector
+        int upperBound = BYTE_SPECIES.loopBound(a.length);
+        FloatVector acc = FloatVector.zero(SPECIES);
+        for (; i < upperBound; i += BYTE_SPECIES.length()) {
+          ByteVector vb8 = ByteVector.fromArray(BYTE_SPECIES, b, i);
+          FloatVector vb = (FloatVector) vb8.convertShape(VectorOperators.B2F, SPECIES, 0);
+          FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+          FloatVector diff = va.sub(vb.mul(scale));
+          acc = acc.add(diff.mul(diff));
+        }
+        // reduce
+        res += acc.reduceLanes(VectorOperators.ADD);
+      } else {
+        // 128-bit implementation, which must "split up" the 8 byte load into two float vectors
+        int upperBound = ByteVector.SPECIES_64.loopBound(a.length);
+        FloatVector acc1 = FloatVector.zero(FloatVector.SPECIES_128);
+        FloatVector acc2 = FloatVector.zero(FloatVector.SPECIES_128);
+        for (; i < upperBound; i += ByteVector.SPECIES_64.length()) {
+          ByteVector vb8 = ByteVector.fromArray(ByteVector.SPECIES_64, b, i);
+          FloatVector vb1 = (FloatVector) vb8.convertShape(VectorOperators.B2F, FloatVector.SPECIES_128, 0);
+          FloatVector vb2 = (FloatVector) vb8.convertShape(VectorOperators.B2F, FloatVector.SPECIES_128, 1);
+          FloatVector va1 = FloatVector.fromArray(FloatVector.SPECIES_128, a, i);
+          FloatVector va2 = FloatVector.fromArray(FloatVector.SPECIES_128, a, i + FloatVector.SPECIES_128.length());
+          FloatVector diff1 = va1.sub(vb1.mul(scale));
+          FloatVector diff2 = va2.sub(vb2.mul(scale));
+          acc1 = acc1.add(diff1.mul(diff1));
+          acc2 = acc2.add(diff2.mul(diff2));
+        }
+        // reduce
+        res += acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+      }
+    }
+
+    for (; i < a.length; i++) {
+      float diff = a[i] - b[i] * scale;
+      res += diff * diff;
+    }
+    return res;
+  }
+
+  /**
+   * Returns the sum of squared differences between a float query and a scaled, signed byte document.
+   *
+   * @throws IllegalArgumentException if the vectors' dimensions differ.
+   */
+  @Benchmark
+  public float squareOld() {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    float squareSum = 0f;
+    for (int i = 0; i < a.length; i++) {
+      float diff = a[i] - b[i] * scale;
+      squareSum += diff * diff;
+    }
+    return squareSum;
+  }
+
+  /** Symmetric float x float baseline, see {@link FloatSquareBenchmark#squareNew()}. */
+  @Benchmark
+  public float floatSquareNew() {
+    return floats.squareNew();
+  }
+
+  /** Symmetric byte x byte baseline, see {@link BinarySquareBenchmark#squareDistanceNew()}. */
+  @Benchmark
+  public int binarySquareDistanceNew() {
+    return binary.squareDistanceNew();
+  }
+}
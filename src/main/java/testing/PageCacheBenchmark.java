@@ -0,0 +1,300 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Query throughput over a corpus read through a {@link VectorPageCache} holding a fraction
+ * {@code cached} of its pages, against the same file memory-mapped, and a copy of all vectors on
+ * the heap. A query scores every vector of {@link #PAGES_PER_QUERY} pages, drawn from a Zipfian
+ * distribution with exponent {@code skew}, and returns the best score. The hot pages are spread
+ * over the file, not all at its start.
+ * <p>
+ * {@link #cache} and {@link #mmap} copy a page out and score the copy with the vectorized kernel,
+ * so they only differ by the cache's misses and bookkeeping; the mapped file is likely entirely in
+ * the OS page cache here, which is what the JVM's memory budget can't count on for larger corpora.
+ * {@link #cacheInPlace} and {@link #mmapInPlace} skip the copy and score the pinned frame, or the
+ * mapping, where it is, with a scalar loop over a {@code FloatBuffer}: the Vector API can't load
+ * from either at source 20, see {@link VectorPageCache}. The cache's hit rate is printed after
+ * every trial.
+ * <p>
+ * Every thread has its own {@link Cursor}, so the {@code *Concurrent} variants, run by
+ * {@link #THREADS} threads, measure pins, CLOCK sweeps and misses racing each other; see
+ * {@link PageCacheCheck} for the matching correctness check.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class PageCacheBenchmark {
+
+  static final int PAGES_PER_QUERY = 16;
+  /** Precomputed page draws, cycled through. */
+  static final int DRAWS = 1 << 16;
+  /** Threads of the {@code *Concurrent} benchmarks. */
+  static final int THREADS = 4;
+
+  VectorPageCache cache;
+  FloatBuffer mapped;
+  float[] heap;
+  float[] query;
+  /** Shared, and only read once set up. */
+  int[] draws;
+
+  /** Number of vectors in the file. */
+  @Param({"200000"})
+  int count;
+
+  @Param({"128"})
+  int size;
+
+  @Param({"64"})
+  int vectorsPerPage;
+
+  /** Fraction of the pages the cache has frames for. */
+  @Param({"0.05", "0.25"})
+  double cached;
+
+  /** Exponent of the Zipfian page distribution: the larger, the more skewed. */
+  @Param({"0.8", "1.2"})
+  double skew;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() throws IOException {
+    VectorShapes.check(bits);
+    Path path = corpus(count, size);
+    int pageCount = (count + vectorsPerPage - 1) / vectorsPerPage;
+    cache = new VectorPageCache(path, vectorsPerPage, Math.max(1, (int) (pageCount * cached)));
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      mapped = mapping.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+    heap = new float[count * size];
+    Dataset dataset = Dataset.open(path);
+    for (int i = 0; i < count; i++) {
+      dataset.floatVector(i).get(heap, i * size, size);
+    }
+    query = dataset.floats(dataset.randomOrd());
+    draws = zipf(pageCount, skew, DRAWS, new Random(42));
+
+    // every page, through all three
+    Cursor cursor = new Cursor();
+    cursor.scratch = new float[cache.pageFloats()];
+    for (int page = 0; page < pageCount; page++) {
+      draws[page % DRAWS] = page;
+      cursor.next = page % DRAWS;
+      float expected = heap(cursor);
+      cursor.next = page % DRAWS;
+      if (cache(cursor) != expected) {
+        throw new RuntimeException("New is wrong");
+      }
+      cursor.next = page % DRAWS;
+      if (mmap(cursor) != expected) {
+        throw new RuntimeException("New is wrong");
+      }
+      // a scalar sum, so not the same order of ops as the kernel's
+      cursor.next = page % DRAWS;
+      if (Math.abs(cacheInPlace(cursor) - expected) > 0.001f * Math.max(1f, Math.abs(expected))) {
+        throw new RuntimeException("probably wrong");
+      }
+      cursor.next = page % DRAWS;
+      if (Math.abs(mmapInPlace(cursor) - expected) > 0.001f * Math.max(1f, Math.abs(expected))) {
+        throw new RuntimeException("probably wrong");
+      }
+    }
+    draws = zipf(pageCount, skew, DRAWS, new Random(42));
+    cache.resetStats();
+  }
+
+  /** A thread's scratch page and position in the draws. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    float[] scratch;
+    int next;
+
+    @Setup(Level.Trial)
+    public void init(PageCacheBenchmark benchmark) {
+      scratch = new float[benchmark.cache.pageFloats()];
+      // threads starting at the same draw would miss on the same pages in lockstep
+      next = ThreadLocalRandom.current().nextInt(DRAWS);
+    }
+
+    int nextPage(int[] draws) {
+      int page = draws[next];
+      next = (next + 1) & (DRAWS - 1);
+      return page;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    if (Double.isNaN(cache.hitRate()) == false) {
+      System.out.printf("%ncache hit rate: %.3f (cached=%s skew=%s)%n", cache.hitRate(), cached, skew);
+    }
+    cache.close();
+  }
+
+  /** Returns a .fvecs file of clustered vectors, generated once in {@code java.io.tmpdir}. */
+  static Path corpus(int count, int dimension) throws IOException {
+    Path path = Paths.get(System.getProperty("java.io.tmpdir"), "vectorbench-pages-" + count + "x" + dimension + ".fvecs");
+    if (Files.exists(path) == false) {
+      Path tmp = Files.createTempFile(path.getParent(), "vectorbench", ".fvecs");
+      Dataset.writeClustered(tmp, dimension, count, Dataset.CLUSTERED_CLUSTERS, dimension);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    return path;
+  }
+
+  /** Returns {@code n} draws of pages 0 to {@code pages - 1}, where the page of rank r has weight 1/r^skew. */
+  static int[] zipf(int pages, double skew, int n, Random random) {
+    double[] cdf = new double[pages];
+    double sum = 0;
+    for (int r = 0; r < pages; r++) {
+      sum += 1 / Math.pow(r + 1, skew);
+      cdf[r] = sum;
+    }
+    // which page has which rank
+    int[] ranked = IntStream.range(0, pages).toArray();
+    for (int i = pages - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = ranked[i];
+      ranked[i] = ranked[j];
+      ranked[j] = tmp;
+    }
+    int[] draws = new int[n];
+    for (int i = 0; i < n; i++) {
+      int r = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+      draws[i] = ranked[r < 0 ? Math.min(pages - 1, -r - 1) : r];
+    }
+    return draws;
+  }
+
+  /** Best score of a page copied into {@code scratch}, records with headers. */
+  private float scorePage(float[] scratch, int vectors) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < vectors; i++) {
+      best = Math.max(best, FloatDotProductBenchmark.dotProduct(query, scratch, i * (size + 1) + 1));
+    }
+    return best;
+  }
+
+  @Benchmark
+  public float cache(Cursor cursor) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int q = 0; q < PAGES_PER_QUERY; q++) {
+      int page = cursor.nextPage(draws);
+      cache.copy(page, cursor.scratch);
+      best = Math.max(best, scorePage(cursor.scratch, cache.vectors(page)));
+    }
+    return best;
+  }
+
+  /** Best score of the {@code vectors} records of {@code buffer} from {@code offset}, read where they are. */
+  private float scoreInPlace(FloatBuffer buffer, int offset, int vectors) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < vectors; i++) {
+      int record = offset + i * (size + 1) + 1;
+      float res = 0;
+      for (int j = 0; j < size; j++) {
+        res += query[j] * buffer.get(record + j);
+      }
+      best = Math.max(best, res);
+    }
+    return best;
+  }
+
+  @Benchmark
+  public float cacheInPlace(Cursor cursor) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int q = 0; q < PAGES_PER_QUERY; q++) {
+      int page = cursor.nextPage(draws);
+      int frame = cache.pin(page);
+      try {
+        best = Math.max(best, scoreInPlace(cache.floats(frame), 0, cache.vectors(page)));
+      } finally {
+        cache.unpin(frame);
+      }
+    }
+    return best;
+  }
+
+  @Benchmark
+  public float mmap(Cursor cursor) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int q = 0; q < PAGES_PER_QUERY; q++) {
+      int page = cursor.nextPage(draws);
+      int vectors = cache.vectors(page);
+      mapped.get(page * vectorsPerPage * (size + 1), cursor.scratch, 0, vectors * (size + 1));
+      best = Math.max(best, scorePage(cursor.scratch, vectors));
+    }
+    return best;
+  }
+
+  @Benchmark
+  public float mmapInPlace(Cursor cursor) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int q = 0; q < PAGES_PER_QUERY; q++) {
+      int page = cursor.nextPage(draws);
+      best = Math.max(best, scoreInPlace(mapped, page * vectorsPerPage * (size + 1), cache.vectors(page)));
+    }
+    return best;
+  }
+
+  @Benchmark
+  public float heap(Cursor cursor) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (int q = 0; q < PAGES_PER_QUERY; q++) {
+      int page = cursor.nextPage(draws);
+      int vectors = cache.vectors(page);
+      for (int i = 0; i < vectors; i++) {
+        best = Math.max(best, FloatDotProductBenchmark.dotProduct(query, heap, (page * vectorsPerPage + i) * size));
+      }
+    }
+    return best;
+  }
+
+  @Benchmark
+  @Threads(THREADS)
+  public float cacheConcurrent(Cursor cursor) {
+    return cache(cursor);
+  }
+
+  @Benchmark
+  @Threads(THREADS)
+  public float cacheInPlaceConcurrent(Cursor cursor) {
+    return cacheInPlace(cursor);
+  }
+
+  @Benchmark
+  @Threads(THREADS)
+  public float mmapConcurrent(Cursor cursor) {
+    return mmap(cursor);
+  }
+
+  @Benchmark
+  @Threads(THREADS)
+  public float heapConcurrent(Cursor cursor) {
+    return heap(cursor);
+  }
+}
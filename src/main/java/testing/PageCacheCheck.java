@@ -0,0 +1,100 @@
+package testing;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks {@link VectorPageCache} under concurrency: threads read pages drawn as in
+ * {@link PageCacheBenchmark} from a cache with a few frames, so most reads race evictions and
+ * refills of the same frames, and compare every record with a copy of the file on the heap,
+ * alternately copied out and read in place from the pinned frame. Exits with status 1 on the
+ * first difference:
+ * {@code java --add-modules=jdk.incubator.vector -cp target/vectorbench.jar testing.PageCacheCheck [threads [seconds]]}
+ */
+public class PageCacheCheck {
+
+  static final int COUNT = 20_000;
+  static final int SIZE = 32;
+  static final int VECTORS_PER_PAGE = 16;
+  static final int FRAMES = 16;
+  static final double SKEW = 0.8;
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+    Path path = PageCacheBenchmark.corpus(COUNT, SIZE);
+    float[] heap = new float[COUNT * SIZE];
+    Dataset dataset = Dataset.open(path);
+    for (int i = 0; i < COUNT; i++) {
+      dataset.floatVector(i).get(heap, i * SIZE, SIZE);
+    }
+
+    AtomicLong reads = new AtomicLong();
+    AtomicReference<String> failure = new AtomicReference<>();
+    try (VectorPageCache cache = new VectorPageCache(path, VECTORS_PER_PAGE, FRAMES)) {
+      long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+      List<Thread> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int[] draws = PageCacheBenchmark.zipf(cache.pageCount(), SKEW, PageCacheBenchmark.DRAWS, new Random(t));
+        Thread worker = new Thread(() -> {
+          float[] scratch = new float[cache.pageFloats()];
+          int next = 0;
+          while (failure.get() == null && System.nanoTime() < deadline) {
+            int page = draws[next];
+            next = (next + 1) & (PageCacheBenchmark.DRAWS - 1);
+            String error;
+            if ((next & 1) == 0) {
+              cache.copy(page, scratch);
+              error = compare(page, cache.vectors(page), FloatBuffer.wrap(scratch), heap);
+            } else {
+              int frame = cache.pin(page);
+              try {
+                error = compare(page, cache.vectors(page), cache.floats(frame), heap);
+              } finally {
+                cache.unpin(frame);
+              }
+            }
+            if (error != null) {
+              failure.compareAndSet(null, error);
+            }
+            reads.incrementAndGet();
+          }
+        });
+        worker.start();
+        workers.add(worker);
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      if (failure.get() != null) {
+        System.out.println("FAILED: " + failure.get());
+        System.exit(1);
+      }
+      System.out.printf("OK: %d threads, %d page reads, %d of %d pages cached, hit rate %.3f%n",
+          threads, reads.get(), FRAMES, cache.pageCount(), cache.hitRate());
+    }
+  }
+
+  /** Returns what differs between the records of {@code page} in {@code records} and the heap copy, or null. */
+  static String compare(int page, int vectors, FloatBuffer records, float[] heap) {
+    for (int i = 0; i < vectors; i++) {
+      int record = i * (SIZE + 1);
+      if (Float.floatToRawIntBits(records.get(record)) != SIZE) {
+        return "page " + page + ", vector " + i + ": header " + Float.floatToRawIntBits(records.get(record));
+      }
+      int vector = page * VECTORS_PER_PAGE + i;
+      for (int j = 0; j < SIZE; j++) {
+        if (records.get(record + 1 + j) != heap[vector * SIZE + j]) {
+          return "page " + page + ", vector " + vector + "[" + j + "]: " + records.get(record + 1 + j) + " != " + heap[vector * SIZE + j];
+        }
+      }
+    }
+    return null;
+  }
+}
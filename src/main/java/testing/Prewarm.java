@@ -0,0 +1,85 @@
+package testing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Instances of every scoring kernel over random data of one size, filled in directly rather
+ * than through the benchmarks' {@code init()}, so that no kernel has run before the first query.
+ * {@link #kernels()} runs them all until they're compiled, for use at service startup.
+ */
+final class Prewarm {
+
+  /** Calls per kernel and size, enough to go past the C2 compile thresholds. */
+  static final int ITERATIONS = 20_000;
+
+  /** Small enough to warm up cheaply, while still entering the vector loops of every species. */
+  static final int[] SIZES = { 64, 1024 };
+
+  final FloatDotProductBenchmark floatDotProduct = new FloatDotProductBenchmark();
+  final FloatSquareBenchmark floatSquare = new FloatSquareBenchmark();
+  final FloatCosineBenchmark floatCosine = new FloatCosineBenchmark();
+  final BinaryDotProductBenchmark binaryDotProduct = new BinaryDotProductBenchmark();
+  final BinarySquareBenchmark binarySquare = new BinarySquareBenchmark();
+  final BinaryCosineBenchmark binaryCosine = new BinaryCosineBenchmark();
+  final BitCountBenchmark bitCount = new BitCountBenchmark();
+  final MixedDotProductBenchmark mixedDotProduct = new MixedDotProductBenchmark();
+  final MixedSquareBenchmark mixedSquare = new MixedSquareBenchmark();
+  final MixedCosineBenchmark mixedCosine = new MixedCosineBenchmark();
+
+  Prewarm(int size) {
+    float[] floats1 = new float[size];
+    float[] floats2 = new float[size];
+    for (int i = 0; i < size; i++) {
+      floats1[i] = ThreadLocalRandom.current().nextFloat();
+      floats2[i] = ThreadLocalRandom.current().nextFloat();
+    }
+    byte[] bytes1 = new byte[size];
+    byte[] bytes2 = new byte[size];
+    ThreadLocalRandom.current().nextBytes(bytes1);
+    ThreadLocalRandom.current().nextBytes(bytes2);
+    long[] longs = new long[size];
+    for (int i = 0; i < size; i++) {
+      longs[i] = ThreadLocalRandom.current().nextLong();
+    }
+    float scale = 1 / 127f;
+
+    floatDotProduct.a = floatSquare.a = floatCosine.a = floats1;
+    floatDotProduct.b = floatSquare.b = floatCosine.b = floats2;
+    binaryDotProduct.a = binarySquare.a = binaryCosine.a = bytes1;
+    binaryDotProduct.b = binarySquare.b = binaryCosine.b = bytes2;
+    bitCount.longs = longs;
+    bitCount.size = size;
+    mixedDotProduct.a = mixedSquare.a = mixedCosine.a = floats1;
+    mixedDotProduct.b = mixedSquare.b = mixedCosine.b = bytes2;
+    mixedDotProduct.scale = mixedSquare.scale = scale;
+  }
+
+  /** Runs every vectorized kernel once, returns the sum of their results. */
+  float query() {
+    return floatDotProduct.dotProductNew()
+        + floatSquare.squareNew()
+        + floatCosine.cosineNew()
+        + binaryDotProduct.dotProductNew()
+        + binarySquare.squareDistanceNew()
+        + binaryCosine.cosineDistanceNew()
+        + bitCount.bitCountNew()
+        + mixedDotProduct.dotProductNew()
+        + mixedSquare.squareNew()
+        + mixedCosine.cosineNew();
+  }
+
+  // results go here, so the warmup loops aren't dead code
+  static volatile float sink;
+
+  /** Forces class initialization and compilation of every vectorized kernel. */
+  static void kernels() {
+    float sum = 0;
+    for (int size : SIZES) {
+      Prewarm prewarm = new Prewarm(size);
+      for (int i = 0; i < ITERATIONS; i++) {
+        sum += prewarm.query();
+      }
+    }
+    sink = sum;
+  }
+}
@@ -0,0 +1,82 @@
+package testing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs searches with admission control: at most {@code maxConcurrency} of them are admitted at
+ * a time, and {@link #submit} rejects the rest instead of queueing them, so that an overloaded
+ * service sheds load rather than letting every query's latency grow. Admitted searches run on
+ * one of the {@link Kind}s of executor.
+ * <p>
+ * {@link Kind#VIRTUAL} needs a JDK 21 runtime: at source level 20,
+ * {@code Executors.newVirtualThreadPerTaskExecutor} is still a preview API, which a Java 20 javac
+ * refuses to compile and a Java 20 JVM refuses to run without {@code --enable-preview}. So it is
+ * looked up reflectively, and on older JVMs {@link Kind#VIRTUAL} runs on a platform pool instead,
+ * after saying so on stderr.
+ */
+final class QueryExecutor implements AutoCloseable {
+
+  enum Kind {
+    /** A fixed pool of {@code threads} platform threads. */
+    PLATFORM,
+    /** A new virtual thread per search: {@code threads} is ignored, carriers are the default scheduler's. */
+    VIRTUAL,
+    /** A {@link ForkJoinPool} with a parallelism of {@code threads}. */
+    FORKJOIN
+  }
+
+  private final ExecutorService executor;
+  private final Semaphore admitted;
+
+  QueryExecutor(Kind kind, int threads, int maxConcurrency) {
+    this.executor = switch (kind) {
+      case PLATFORM -> Executors.newFixedThreadPool(threads);
+      case VIRTUAL -> virtualThreadPerTask(threads);
+      case FORKJOIN -> new ForkJoinPool(threads);
+    };
+    this.admitted = new Semaphore(maxConcurrency);
+  }
+
+  /** Returns {@code Executors.newVirtualThreadPerTaskExecutor()}, or a pool of {@code threads} platform threads if this JVM has none. */
+  private static ExecutorService virtualThreadPerTask(int threads) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (InvocationTargetException e) {
+      // Java 20 without --enable-preview: the method exists, but throws UnsupportedOperationException
+      System.err.println("WARNING: running VIRTUAL on platform threads: " + e.getCause());
+    } catch (ReflectiveOperationException e) {
+      System.err.println("WARNING: running VIRTUAL on platform threads: Java " + Runtime.version().feature() + " has no virtual threads");
+    }
+    return Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * Runs {@code search} if fewer than {@code maxConcurrency} searches are running or waiting for a
+   * thread, otherwise throws {@link RejectedExecutionException} without running it.
+   */
+  <T> CompletableFuture<T> submit(Supplier<T> search) {
+    if (admitted.tryAcquire() == false) {
+      throw new RejectedExecutionException("too many concurrent searches");
+    }
+    try {
+      return CompletableFuture.supplyAsync(search, executor).whenComplete((result, e) -> admitted.release());
+    } catch (RejectedExecutionException e) {
+      admitted.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+  }
+}
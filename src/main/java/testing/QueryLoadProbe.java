@@ -0,0 +1,137 @@
+package testing;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures search latency percentiles under concurrent load, which JMH's throughput numbers don't
+ * show, for each {@link QueryExecutor.Kind}. The searches are kernel-bound: brute force over
+ * {@link #DOCS} vectors of a {@link SegmentedVectorStore}.
+ * <ul>
+ *   <li>closed loop: {@code cores * 4} clients each submit a search and wait for it, then submit
+ *       the next one. This gives the throughput, but latency can't grow past what the clients
+ *       allow.
+ *   <li>open loop: searches arrive at a fixed rate, a fraction of the closed loop throughput,
+ *       whether or not earlier ones finished, and latency counts from when a search was due, so
+ *       a stalled pacer doesn't hide queueing (coordinated omission). Past capacity, admission
+ *       control rejects searches.
+ * </ul>
+ * Every run warms up for a second before it records. Run it on JDK 21: older JVMs have no
+ * virtual threads, and run {@code VIRTUAL} on platform threads, see {@link QueryExecutor}:
+ * {@code java --add-modules=jdk.incubator.vector -cp target/vectorbench.jar testing.QueryLoadProbe [seconds]}
+ */
+public class QueryLoadProbe {
+
+  static final int DOCS = 20_000;
+  static final int SIZE = 128;
+  static final int K = 10;
+  static final int QUERIES = 100;
+  static final int CORES = Runtime.getRuntime().availableProcessors();
+  static final int CLIENTS = CORES * 4;
+  /** Open loop rates, as fractions of the closed loop throughput. */
+  static final double[] LOADS = { 0.5, 0.8, 1.2 };
+
+  final SegmentedVectorStore store;
+  final float[][] queries = new float[QUERIES][SIZE];
+  final AtomicLong next = new AtomicLong();
+  final LatencyHistogram histogram = new LatencyHistogram();
+
+  QueryLoadProbe() {
+    float[] docs = new float[DOCS * SIZE];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = ThreadLocalRandom.current().nextFloat();
+    }
+    store = new SegmentedVectorStore(SIZE, 1024, 10, 1, docs);
+    for (float[] query : queries) {
+      for (int i = 0; i < SIZE; i++) {
+        query[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5;
+    QueryLoadProbe probe = new QueryLoadProbe();
+    System.out.printf("%-9s %-7s %10s %10s %10s %10s %9s%n", "executor", "load", "qps", "p50 (us)", "p99 (us)", "p999 (us)", "rejected");
+    for (QueryExecutor.Kind kind : QueryExecutor.Kind.values()) {
+      try (QueryExecutor executor = new QueryExecutor(kind, CORES, CLIENTS)) {
+        probe.closedLoop(executor, 1);
+        double qps = probe.closedLoop(executor, seconds);
+        probe.report(kind, "closed", qps, 0);
+        for (double load : LOADS) {
+          probe.openLoop(executor, qps * load, 1);
+          long[] result = probe.openLoop(executor, qps * load, seconds);
+          probe.report(kind, load + "x", result[0] / seconds, result[1]);
+        }
+      }
+    }
+    probe.store.close();
+  }
+
+  private int[] search() {
+    return store.search(queries[(int) (next.getAndIncrement() % QUERIES)], K);
+  }
+
+  private void report(QueryExecutor.Kind kind, String load, double qps, long rejected) {
+    System.out.printf("%-9s %-7s %10.0f %10.1f %10.1f %10.1f %9d%n", kind.name().toLowerCase(), load, qps,
+        histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, rejected);
+  }
+
+  /** Runs {@link #CLIENTS} clients for {@code seconds}, returns the throughput. */
+  double closedLoop(QueryExecutor executor, double seconds) throws InterruptedException {
+    histogram.reset();
+    long end = System.nanoTime() + (long) (seconds * 1e9);
+    AtomicLong completed = new AtomicLong();
+    Thread[] clients = new Thread[CLIENTS];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new Thread(() -> {
+        long start;
+        while ((start = System.nanoTime()) < end) {
+          executor.submit(this::search).join();
+          histogram.record(System.nanoTime() - start);
+          completed.incrementAndGet();
+        }
+      });
+      clients[i].start();
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+    return completed.get() / seconds;
+  }
+
+  /** Submits {@code rate} searches per second for {@code seconds}, returns how many completed and how many were rejected. */
+  long[] openLoop(QueryExecutor executor, double rate, double seconds) {
+    histogram.reset();
+    long interval = (long) (1e9 / rate);
+    long start = System.nanoTime();
+    long end = start + (long) (seconds * 1e9);
+    AtomicLong completed = new AtomicLong();
+    long submitted = 0;
+    long rejected = 0;
+    for (long due = start; due < end; due += interval) {
+      long now;
+      while ((now = System.nanoTime()) < due) {
+        LockSupport.parkNanos(due - now);
+      }
+      long dueAt = due;
+      try {
+        executor.submit(this::search).whenComplete((result, e) -> {
+          histogram.record(System.nanoTime() - dueAt);
+          completed.incrementAndGet();
+        });
+        submitted++;
+      } catch (RejectedExecutionException e) {
+        rejected++;
+      }
+    }
+    // admission control bounds what's still running, wait for it
+    while (completed.get() < submitted) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    return new long[] { completed.get(), rejected };
+  }
+}
@@ -0,0 +1,338 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Random rotations before quantization: int8, int4 or 1-bit codes lose less when every dimension
+ * carries about the same energy, which a random rotation gives any vector. A dense random
+ * orthogonal matrix costs O(d²) per vector; {@link #fwhtNew} is O(d log d): the vector is padded
+ * with zeros to the next power of two, its signs flipped at random, then it goes through a fast
+ * Walsh-Hadamard transform, scaled to keep norms. Padding grows 207 dimensions to 256, and 702
+ * to 1024, which the int8 kernels then have to score.
+ * <p>
+ * Setup prints the recall@10 of int8 dot products, with {@link MixedDotProductBenchmark#quantize}'s
+ * per-vector scale, over the clustered dataset: as is, after the Hadamard rotation, and after the
+ * dense one. The generated dataset's dimensions all have the same spread, unlike most real
+ * embeddings', so {@code anisotropy} scales dimension {@code j} by {@code exp(anisotropy * g_j)},
+ * with {@code g_j} gaussian: 0 leaves the dataset as is.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class RotationBenchmark {
+
+  static final int QUERIES = 100;
+  static final int K = 10;
+
+  float[] x;
+  /** Random signs, scaled by 1/sqrt of the padded size so the transform keeps norms. */
+  float[] signs;
+  float[] rotated;
+  /** Random orthogonal matrix, one row of {@code size} after the other. */
+  float[] matrix;
+  float[] denseRotated;
+
+  @Param({"128", "207", "702", "1024"})
+  int size;
+
+  /** {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"clustered"})
+  String data;
+
+  /** Spread of the per-dimension log-normal scales applied to the dataset, 0 for none. */
+  @Param({"1"})
+  float anisotropy;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    Random random = new Random(size);
+    int padded = padded(size);
+    signs = new float[padded];
+    for (int i = 0; i < padded; i++) {
+      signs[i] = (random.nextBoolean() ? 1 : -1) / (float) Math.sqrt(padded);
+    }
+    rotated = new float[padded];
+    matrix = orthogonal(size, random);
+    denseRotated = new float[size];
+
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      throw new IllegalArgumentException("recall needs a dataset, not " + data);
+    }
+    float[] scales = new float[size];
+    for (int i = 0; i < size; i++) {
+      scales[i] = (float) Math.exp(anisotropy * random.nextGaussian());
+    }
+    float[][] docs = new float[dataset.count()][];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = dataset.floats(i);
+      for (int j = 0; j < size; j++) {
+        docs[i][j] *= scales[j];
+      }
+    }
+    x = docs[ThreadLocalRandom.current().nextInt(docs.length)].clone();
+
+    float[] expected = new float[padded];
+    rotateOld(x, signs, expected);
+    rotateNew(x, signs, rotated);
+    denseNew();
+    float norm = FloatCosineBenchmark.squareNorm(x, 0, size);
+    for (int i = 0; i < padded; i++) {
+      // order of ops may change, but try to detect broken shit
+      if (Math.abs(expected[i] - rotated[i]) > 0.001f * Math.sqrt(norm)) {
+        throw new RuntimeException("New is wrong");
+      }
+    }
+    // both are rotations
+    if (Math.abs(FloatCosineBenchmark.squareNorm(rotated, 0, padded) - norm) > 0.001f * norm
+        || Math.abs(FloatCosineBenchmark.squareNorm(denseRotated, 0, size) - norm) > 0.001f * norm) {
+      throw new RuntimeException("probably wrong");
+    }
+
+    float[][] queries = new float[QUERIES][];
+    for (int q = 0; q < QUERIES; q++) {
+      queries[q] = docs[random.nextInt(docs.length)].clone();
+      for (int j = 0; j < size; j++) {
+        queries[q][j] += (float) random.nextGaussian() * 0.25f * scales[j];
+      }
+    }
+    System.out.printf("%nint8 recall@%d: plain %.3f, hadamard %.3f, dense %.3f (size=%d padded=%d anisotropy=%s)%n", K,
+        recall(docs, queries, v -> v),
+        recall(docs, queries, v -> {
+          float[] out = new float[padded];
+          rotateNew(v, signs, out);
+          return out;
+        }),
+        recall(docs, queries, v -> {
+          float[] out = new float[size];
+          denseRotate(v, matrix, out);
+          return out;
+        }),
+        size, padded, anisotropy);
+  }
+
+  /** Returns the power of two the vectors are padded to. */
+  static int padded(int size) {
+    return Math.max(1, Integer.highestOneBit(size - 1) << 1);
+  }
+
+  /** Returns a random orthogonal {@code n * n} matrix: Gram-Schmidt over gaussian rows. */
+  static float[] orthogonal(int n, Random random) {
+    double[][] rows = new double[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        rows[i][j] = random.nextGaussian();
+      }
+      // twice, for orthogonality in floating point
+      for (int pass = 0; pass < 2; pass++) {
+        for (int k = 0; k < i; k++) {
+          double dot = 0;
+          for (int j = 0; j < n; j++) {
+            dot += rows[i][j] * rows[k][j];
+          }
+          for (int j = 0; j < n; j++) {
+            rows[i][j] -= dot * rows[k][j];
+          }
+        }
+      }
+      double norm = 0;
+      for (int j = 0; j < n; j++) {
+        norm += rows[i][j] * rows[i][j];
+      }
+      norm = Math.sqrt(norm);
+      for (int j = 0; j < n; j++) {
+        rows[i][j] /= norm;
+      }
+    }
+    float[] matrix = new float[n * n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        matrix[i * n + j] = (float) rows[i][j];
+      }
+    }
+    return matrix;
+  }
+
+  /** Mean recall@{@link #K} of int8 dot products over {@code transform}ed vectors, against float dot products. */
+  static double recall(float[][] docs, float[][] queries, UnaryOperator<float[]> transform) {
+    byte[][] quantizedDocs = new byte[docs.length][];
+    float[] docScales = new float[docs.length];
+    for (int i = 0; i < docs.length; i++) {
+      float[] v = transform.apply(docs[i]);
+      quantizedDocs[i] = new byte[v.length];
+      docScales[i] = MixedDotProductBenchmark.quantize(v, quantizedDocs[i]);
+    }
+    BinaryDotProductBenchmark bytes = new BinaryDotProductBenchmark();
+    float[] exact = new float[docs.length];
+    float[] approximate = new float[docs.length];
+    double recall = 0;
+    for (float[] query : queries) {
+      float[] v = transform.apply(query);
+      bytes.a = new byte[v.length];
+      MixedDotProductBenchmark.quantize(v, bytes.a);
+      for (int i = 0; i < docs.length; i++) {
+        exact[i] = FloatDotProductBenchmark.dotProduct(query, docs[i], 0);
+        bytes.b = quantizedDocs[i];
+        // the query's scale is the same for every doc
+        approximate[i] = bytes.dotProductNew() * docScales[i];
+      }
+      int[] truth = TopKBenchmark.topFloats(exact, K);
+      int[] found = TopKBenchmark.topFloats(approximate, K);
+      for (int ord : found) {
+        for (int t : truth) {
+          if (ord == t) {
+            recall++;
+          }
+        }
+      }
+    }
+    return recall / ((double) queries.length * K);
+  }
+
+  @Benchmark
+  public float[] fwhtNew() {
+    rotateNew(x, signs, rotated);
+    return rotated;
+  }
+
+  @Benchmark
+  public float[] fwhtOld() {
+    rotateOld(x, signs, rotated);
+    return rotated;
+  }
+
+  @Benchmark
+  public float[] denseNew() {
+    denseRotate(x, matrix, denseRotated);
+    return denseRotated;
+  }
+
+  /** Multiplies {@code x} by {@code matrix}, one {@link FloatDotProductBenchmark#dotProduct} per row. */
+  static void denseRotate(float[] x, float[] matrix, float[] out) {
+    for (int i = 0; i < out.length; i++) {
+      out[i] = FloatDotProductBenchmark.dotProduct(x, matrix, i * x.length);
+    }
+  }
+
+  static final VectorSpecies<Float> SPECIES = VectorShapes.FLOAT;
+
+  // butterflies between lanes i and i ^ h, for strides h within one vector: null if h >= lanes
+  static final VectorShuffle<Float> SWAP_1 = swap(1);
+  static final VectorShuffle<Float> SWAP_2 = swap(2);
+  static final VectorShuffle<Float> SWAP_4 = swap(4);
+  static final VectorShuffle<Float> SWAP_8 = swap(8);
+  // the lanes that take the difference, not the sum
+  static final VectorMask<Float> UPPER_1 = upper(1);
+  static final VectorMask<Float> UPPER_2 = upper(2);
+  static final VectorMask<Float> UPPER_4 = upper(4);
+  static final VectorMask<Float> UPPER_8 = upper(8);
+
+  private static VectorShuffle<Float> swap(int h) {
+    return h < SPECIES.length() ? VectorShuffle.fromOp(SPECIES, i -> i ^ h) : null;
+  }
+
+  private static VectorMask<Float> upper(int h) {
+    if (h >= SPECIES.length()) {
+      return null;
+    }
+    long bits = 0;
+    for (int i = 0; i < SPECIES.length(); i++) {
+      if ((i & h) != 0) {
+        bits |= 1L << i;
+      }
+    }
+    return VectorMask.fromLong(SPECIES, bits);
+  }
+
+  /** Writes the rotation of {@code x}, padded to {@code out.length}, a power of two, into {@code out}. */
+  static void rotateNew(float[] x, float[] signs, float[] out) {
+    int n = out.length;
+    int i = 0;
+    int upperBound = SPECIES.loopBound(x.length);
+    for (; i < upperBound; i += SPECIES.length()) {
+      FloatVector.fromArray(SPECIES, x, i).mul(FloatVector.fromArray(SPECIES, signs, i)).intoArray(out, i);
+    }
+    for (; i < x.length; i++) {
+      out[i] = x[i] * signs[i];
+    }
+    for (; i < n; i++) {
+      out[i] = 0;
+    }
+    if (n < 2 * SPECIES.length()) {
+      fwhtOld(out);
+      return;
+    }
+    int lanes = SPECIES.length();
+    // strides within a vector: each lane adds or subtracts its partner, fetched by a shuffle
+    for (i = 0; i < n; i += lanes) {
+      FloatVector v = FloatVector.fromArray(SPECIES, out, i);
+      if (lanes > 1) {
+        FloatVector partner = v.rearrange(SWAP_1);
+        v = v.add(partner).blend(partner.sub(v), UPPER_1);
+      }
+      if (lanes > 2) {
+        FloatVector partner = v.rearrange(SWAP_2);
+        v = v.add(partner).blend(partner.sub(v), UPPER_2);
+      }
+      if (lanes > 4) {
+        FloatVector partner = v.rearrange(SWAP_4);
+        v = v.add(partner).blend(partner.sub(v), UPPER_4);
+      }
+      if (lanes > 8) {
+        FloatVector partner = v.rearrange(SWAP_8);
+        v = v.add(partner).blend(partner.sub(v), UPPER_8);
+      }
+      v.intoArray(out, i);
+    }
+    // strides of whole vectors: the passes of a Hadamard transform commute, so these can come last
+    for (int h = lanes; h < n; h <<= 1) {
+      for (int start = 0; start < n; start += h << 1) {
+        for (int j = start; j < start + h; j += lanes) {
+          FloatVector a = FloatVector.fromArray(SPECIES, out, j);
+          FloatVector b = FloatVector.fromArray(SPECIES, out, j + h);
+          a.add(b).intoArray(out, j);
+          a.sub(b).intoArray(out, j + h);
+        }
+      }
+    }
+  }
+
+  static void rotateOld(float[] x, float[] signs, float[] out) {
+    for (int i = 0; i < out.length; i++) {
+      out[i] = i < x.length ? x[i] * signs[i] : 0;
+    }
+    fwhtOld(out);
+  }
+
+  /** Unnormalized fast Walsh-Hadamard transform in place, {@code v.length} a power of two. */
+  static void fwhtOld(float[] v) {
+    for (int h = 1; h < v.length; h <<= 1) {
+      for (int start = 0; start < v.length; start += h << 1) {
+        for (int j = start; j < start + h; j++) {
+          float a = v[j];
+          float b = v[j + h];
+          v[j] = a + b;
+          v[j + h] = a - b;
+        }
+      }
+    }
+  }
+}
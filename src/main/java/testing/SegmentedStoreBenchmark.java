@@ -0,0 +1,211 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest rate and query throughput of a {@link SegmentedVectorStore} while one thread adds
+ * vectors and another searches at the same time, against a monolithic store that keeps all
+ * vectors in one array and rebuilds it on every flush. Both start with {@code count} vectors and
+ * start over once they hold twice as many, which bounds the heap. {@code searchIdle} is the query
+ * throughput without concurrent ingest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class SegmentedStoreBenchmark {
+
+  /** Vectors the stores start with, one row of {@code size} after the other. */
+  float[] initial;
+  /** Vectors to add, cycled through. */
+  float[][] pool;
+  float[] query;
+  int next;
+
+  volatile SegmentedVectorStore segmented;
+  volatile MonolithicStore monolithic;
+
+  /** Number of vectors the stores start with. */
+  @Param({"100000"})
+  int count;
+
+  @Param({"128"})
+  int size;
+
+  /** Number of vectors buffered before they are flushed, and searchable. */
+  @Param({"1024"})
+  int bufferSize;
+
+  /** {@code segmented} or {@code monolithic}. */
+  @Param({"segmented", "monolithic"})
+  String store;
+
+  /** {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}. */
+  @Param({"random"})
+  String data;
+
+  static final int MERGE_FACTOR = 10;
+  static final int K = 10;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() throws InterruptedException {
+    VectorShapes.check(bits);
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    initial = new float[count * size];
+    pool = new float[count][];
+    if (dataset == null) {
+      for (int i = 0; i < initial.length; i++) {
+        initial[i] = ThreadLocalRandom.current().nextFloat();
+      }
+      for (int i = 0; i < pool.length; i++) {
+        pool[i] = new float[size];
+        for (int j = 0; j < size; j++) {
+          pool[i][j] = ThreadLocalRandom.current().nextFloat();
+        }
+      }
+      query = new float[size];
+      for (int i = 0; i < size; i++) {
+        query[i] = ThreadLocalRandom.current().nextFloat();
+      }
+    } else {
+      for (int ord = 0; ord < count; ord++) {
+        System.arraycopy(dataset.floats(ord % dataset.count()), 0, initial, ord * size, size);
+      }
+      for (int i = 0; i < pool.length; i++) {
+        pool[i] = dataset.floats(dataset.randomOrd());
+      }
+      query = dataset.floats(dataset.randomOrd());
+    }
+
+    // add the whole pool, a partial buffer included, and check both stores find the same vectors
+    SegmentedVectorStore segmented = new SegmentedVectorStore(size, bufferSize, MERGE_FACTOR, 1, initial);
+    MonolithicStore monolithic = new MonolithicStore(size, bufferSize, initial);
+    for (float[] vector : pool) {
+      segmented.add(vector);
+      monolithic.add(vector);
+    }
+    segmented.flush();
+    monolithic.flush();
+    segmented.awaitMerges();
+    segmented.close();
+    if (segmented.size() != 2 * count || segmented.segmentCount() >= 2 + (MERGE_FACTOR - 1) * 4) {
+      throw new RuntimeException("segmented is wrong");
+    }
+    if (Arrays.equals(sortedScores(segmented.search(query, K)), sortedScores(monolithic.search(query, K))) == false) {
+      throw new RuntimeException("segmented is wrong");
+    }
+  }
+
+  /** Returns the scores of {@code ords} against the query, sorted: ties may pick different ords. */
+  private float[] sortedScores(int[] ords) {
+    float[] scores = new float[ords.length];
+    for (int i = 0; i < ords.length; i++) {
+      float[] vector = ords[i] < count ? Arrays.copyOfRange(initial, ords[i] * size, (ords[i] + 1) * size) : pool[ords[i] - count];
+      scores[i] = FloatDotProductBenchmark.dotProduct(query, vector, 0);
+    }
+    Arrays.sort(scores);
+    return scores;
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    startOver();
+  }
+
+  @TearDown(Level.Iteration)
+  public void close() {
+    if (segmented != null) {
+      segmented.close();
+    }
+  }
+
+  private void startOver() {
+    next = 0;
+    if (store.equals("segmented")) {
+      if (segmented != null) {
+        segmented.close();
+      }
+      segmented = new SegmentedVectorStore(size, bufferSize, MERGE_FACTOR, 1, initial);
+    } else {
+      monolithic = new MonolithicStore(size, bufferSize, initial);
+    }
+  }
+
+  /** Adds a vector; once the pool has been added, starts over from the initial vectors. */
+  @Benchmark
+  @Group("concurrent")
+  @GroupThreads(1)
+  public int ingest() {
+    if (next == pool.length) {
+      startOver();
+    }
+    float[] vector = pool[next++];
+    return store.equals("segmented") ? segmented.add(vector) : monolithic.add(vector);
+  }
+
+  @Benchmark
+  @Group("concurrent")
+  @GroupThreads(1)
+  public int[] search() {
+    return store.equals("segmented") ? segmented.search(query, K) : monolithic.search(query, K);
+  }
+
+  @Benchmark
+  @Group("idle")
+  @GroupThreads(1)
+  public int[] searchIdle() {
+    return store.equals("segmented") ? segmented.search(query, K) : monolithic.search(query, K);
+  }
+
+  /**
+   * The baseline: all vectors in one array, which every flush replaces with a copy that has the
+   * buffer appended, so ingest gets slower as the store grows.
+   */
+  static final class MonolithicStore {
+    final int dimension;
+    final float[] buffer;
+    int buffered;
+    volatile float[] vectors;
+
+    MonolithicStore(int dimension, int bufferSize, float[] initial) {
+      this.dimension = dimension;
+      this.buffer = new float[bufferSize * dimension];
+      this.vectors = initial;
+    }
+
+    synchronized int add(float[] vector) {
+      System.arraycopy(vector, 0, buffer, buffered * dimension, dimension);
+      int ord = vectors.length / dimension + buffered++;
+      if (buffered * dimension == buffer.length) {
+        flush();
+      }
+      return ord;
+    }
+
+    synchronized void flush() {
+      float[] next = Arrays.copyOf(vectors, vectors.length + buffered * dimension);
+      System.arraycopy(buffer, 0, next, vectors.length, buffered * dimension);
+      vectors = next;
+      buffered = 0;
+    }
+
+    int[] search(float[] query, int k) {
+      float[] vectors = this.vectors;
+      float[] scores = new float[vectors.length / dimension];
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] = FloatDotProductBenchmark.dotProduct(query, vectors, i * dimension);
+      }
+      return TopKBenchmark.topFloats(scores, k);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package testing;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An append-only store of float vectors, made of immutable segments of contiguous vectors. New
+ * vectors go into an in-memory buffer, which is flushed into a new segment once it holds
+ * {@code bufferSize} vectors; whenever {@code mergeFactor} adjacent segments of the same level
+ * exist, a background thread merges them into one segment of the next level, so the number of
+ * segments only grows logarithmically.
+ * <p>
+ * Vectors get ords in the order they were added, and every segment covers a contiguous range of
+ * ords, which merges of adjacent segments preserve. Vectors become searchable once flushed.
+ * Searches read an immutable snapshot of the segments: they never wait for writers or merges.
+ */
+public final class SegmentedVectorStore implements Closeable {
+
+  /** Vectors {@code base} to {@code base + count - 1}, one row of {@code dimension} after the other. */
+  static final class Segment {
+    final int base;
+    final int count;
+    final float[] vectors;
+    final int level;
+    // guarded by the store
+    boolean merging;
+
+    Segment(int base, int count, float[] vectors, int level) {
+      this.base = base;
+      this.count = count;
+      this.vectors = vectors;
+      this.level = level;
+    }
+  }
+
+  private final int dimension;
+  private final int bufferSize;
+  private final int mergeFactor;
+  private final ExecutorService merges;
+
+  // all guarded by this
+  private float[] buffer;
+  private int buffered;
+  private int flushed;
+  private int runningMerges;
+  private Throwable mergeFailure;
+  private boolean closed;
+
+  /** The current segments, in ord order: replaced, never modified. */
+  private volatile Segment[] segments = new Segment[0];
+
+  public SegmentedVectorStore(int dimension, int bufferSize, int mergeFactor, int mergeThreads) {
+    this(dimension, bufferSize, mergeFactor, mergeThreads, new float[0]);
+  }
+
+  /**
+   * Creates a store holding the vectors of {@code initial}, one row of {@code dimension} after the
+   * other, as one searchable segment that is never merged. The array is used as is, not copied.
+   */
+  public SegmentedVectorStore(int dimension, int bufferSize, int mergeFactor, int mergeThreads, float[] initial) {
+    if (dimension <= 0 || bufferSize <= 0 || mergeFactor < 2 || mergeThreads <= 0) {
+      throw new IllegalArgumentException("invalid store configuration: dimension=" + dimension
+          + " bufferSize=" + bufferSize + " mergeFactor=" + mergeFactor + " mergeThreads=" + mergeThreads);
+    }
+    this.dimension = dimension;
+    this.bufferSize = bufferSize;
+    this.mergeFactor = mergeFactor;
+    this.buffer = new float[bufferSize * dimension];
+    this.merges = Executors.newFixedThreadPool(mergeThreads, r -> {
+      Thread thread = new Thread(r, "segment-merge");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (initial.length % dimension != 0) {
+      throw new IllegalArgumentException("initial vectors aren't a multiple of " + dimension + ": " + initial.length);
+    }
+    if (initial.length > 0) {
+      this.flushed = initial.length / dimension;
+      this.segments = new Segment[] { new Segment(0, flushed, initial, Integer.MAX_VALUE) };
+    }
+  }
+
+  public int dimension() {
+    return dimension;
+  }
+
+  /** Returns the number of searchable vectors. */
+  public int size() {
+    Segment[] segments = this.segments;
+    return segments.length == 0 ? 0 : segments[segments.length - 1].base + segments[segments.length - 1].count;
+  }
+
+  /** Returns the number of segments. */
+  public int segmentCount() {
+    return segments.length;
+  }
+
+  /** Adds a vector, returns its ord. It becomes searchable with the next flush. */
+  public synchronized int add(float[] vector) {
+    if (vector.length != dimension) {
+      throw new IllegalArgumentException("vector dimensions differ: " + vector.length + "!=" + dimension);
+    }
+    if (closed) {
+      throw new IllegalStateException("store is closed");
+    }
+    System.arraycopy(vector, 0, buffer, buffered * dimension, dimension);
+    int ord = flushed + buffered++;
+    if (buffered == bufferSize) {
+      flush();
+    }
+    return ord;
+  }
+
+  /** Makes all added vectors searchable. */
+  public synchronized void flush() {
+    if (buffered == 0) {
+      return;
+    }
+    float[] vectors = buffered == bufferSize ? buffer : Arrays.copyOf(buffer, buffered * dimension);
+    Segment[] next = Arrays.copyOf(segments, segments.length + 1);
+    next[next.length - 1] = new Segment(flushed, buffered, vectors, 0);
+    segments = next;
+    flushed += buffered;
+    buffered = 0;
+    if (vectors == buffer) {
+      buffer = new float[bufferSize * dimension];
+    }
+    maybeMerge();
+  }
+
+  /** Starts merges of every run of {@code mergeFactor} adjacent segments of one level that aren't merging yet. */
+  private void maybeMerge() {
+    assert Thread.holdsLock(this);
+    if (closed) {
+      return;
+    }
+    Segment[] segments = this.segments;
+    int start = 0;
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i].merging) {
+        start = i + 1;
+      } else if (segments[i].level != segments[start].level) {
+        start = i;
+      } else if (i - start + 1 == mergeFactor) {
+        Segment[] toMerge = Arrays.copyOfRange(segments, start, i + 1);
+        for (Segment segment : toMerge) {
+          segment.merging = true;
+        }
+        runningMerges++;
+        merges.execute(() -> merge(toMerge));
+        start = i + 1;
+      }
+    }
+  }
+
+  /**
+   * Copies adjacent segments into one, outside the lock, then swaps it in for them. If the copy
+   * fails, the segments stay as they are, they can be merged again, and {@link #awaitMerges()}
+   * throws the failure.
+   */
+  private void merge(Segment[] toMerge) {
+    Segment merged = null;
+    try {
+      int count = 0;
+      for (Segment segment : toMerge) {
+        count += segment.count;
+      }
+      float[] vectors = new float[count * dimension];
+      int offset = 0;
+      for (Segment segment : toMerge) {
+        System.arraycopy(segment.vectors, 0, vectors, offset, segment.count * dimension);
+        offset += segment.count * dimension;
+      }
+      merged = new Segment(toMerge[0].base, count, vectors, toMerge[0].level + 1);
+    } catch (Throwable t) {
+      synchronized (this) {
+        if (mergeFailure == null) {
+          mergeFailure = t;
+        } else {
+          mergeFailure.addSuppressed(t);
+        }
+      }
+      throw t;
+    } finally {
+      synchronized (this) {
+        if (merged == null) {
+          // not retried right away: the next flush does
+          for (Segment segment : toMerge) {
+            segment.merging = false;
+          }
+        } else {
+          Segment[] segments = this.segments;
+          // segments are only ever appended or merged, so the merged ones are still adjacent
+          int start = Arrays.asList(segments).indexOf(toMerge[0]);
+          Segment[] next = new Segment[segments.length - toMerge.length + 1];
+          System.arraycopy(segments, 0, next, 0, start);
+          next[start] = merged;
+          System.arraycopy(segments, start + toMerge.length, next, start + 1, segments.length - start - toMerge.length);
+          this.segments = next;
+        }
+        runningMerges--;
+        if (merged != null) {
+          maybeMerge();
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until no merges are running or pending. Throws an {@link IllegalStateException} caused
+   * by the first merge that failed since the last call, if any: its segments are left unmerged.
+   */
+  public synchronized void awaitMerges() throws InterruptedException {
+    while (runningMerges > 0) {
+      wait();
+    }
+    if (mergeFailure != null) {
+      Throwable failure = mergeFailure;
+      mergeFailure = null;
+      throw new IllegalStateException("merge failed", failure);
+    }
+  }
+
+  /**
+   * Returns the ords of the {@code k} searchable vectors with the highest dot product with
+   * {@code query}, in no particular order: every segment is scored with
+   * {@link FloatDotProductBenchmark#dotProduct(float[], float[], int)}, then selected with
+   * {@link TopKBenchmark#topFloats}.
+   */
+  public int[] search(float[] query, int k) {
+    if (query.length != dimension) {
+      throw new IllegalArgumentException("vector dimensions differ: " + query.length + "!=" + dimension);
+    }
+    Segment[] segments = this.segments;
+    if (segments.length == 0) {
+      return new int[0];
+    }
+    Segment last = segments[segments.length - 1];
+    float[] scores = new float[last.base + last.count];
+    for (Segment segment : segments) {
+      for (int i = 0; i < segment.count; i++) {
+        scores[segment.base + i] = FloatDotProductBenchmark.dotProduct(query, segment.vectors, i * dimension);
+      }
+    }
+    return TopKBenchmark.topFloats(scores, k);
+  }
+
+  /**
+   * Stops accepting vectors and starting merges, without waiting: running merges still finish,
+   * see {@link #awaitMerges()}. Searches keep working.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    merges.shutdown();
+  }
+}
@@ -0,0 +1,57 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import jdk.incubator.vector.VectorShape;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks once per vector shape, and prints all results in one table with a {@code bits}
+ * column: the kernels' shape can only be selected at JVM startup (see {@link VectorShapes}), so
+ * each value of the {@code bits} param gets its own JMH run, whose forks have the matching
+ * system property. Takes the usual JMH arguments; without {@code -p bits=...}, it runs every
+ * shape from 64 bits up to the preferred one.
+ * <p>
+ * {@code java --add-modules=jdk.incubator.vector -cp target/vectorbench.jar testing.ShapeSweep FloatDotProduct -p size=128,1024}
+ */
+public class ShapeSweep {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions options = new CommandLineOptions(args);
+    List<String> shapes = new ArrayList<>();
+    if (options.getParameter("bits").hasValue()) {
+      shapes.addAll(options.getParameter("bits").get());
+    } else {
+      for (int bits = 64; bits <= VectorShape.preferredShape().vectorBitSize(); bits *= 2) {
+        shapes.add(Integer.toString(bits));
+      }
+    }
+    for (String bits : shapes) {
+      // fail before any fork does
+      VectorShapes.bits(bits);
+    }
+
+    List<String> jvmArgs = new ArrayList<>(options.getJvmArgsAppend().orElse(List.of()));
+    Collection<RunResult> results = new ArrayList<>();
+    for (String bits : shapes) {
+      List<String> shapeArgs = new ArrayList<>(jvmArgs);
+      shapeArgs.add("-D" + VectorShapes.PROPERTY + "=" + bits);
+      Options shape = new OptionsBuilder()
+          .parent(options)
+          .param("bits", bits)
+          .jvmArgsAppend(shapeArgs.toArray(new String[0]))
+          .build();
+      results.addAll(new Runner(shape).run());
+    }
+    System.out.println();
+    ResultFormatFactory.getInstance(ResultFormatType.TEXT, System.out).writeOut(results);
+  }
+}
@@ -0,0 +1,88 @@
+package testing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * SIMD-within-a-register helpers for scalar versions of the byte and bit count kernels, for
+ * hardware without usable vector registers: 8 bytes are read at a time as a {@code long} and
+ * products are computed two at a time with a single 64-bit multiply.
+ * <p>
+ * Only the bit count beats the plain loops on x86 without popcnt: the byte kernels need about
+ * twice the instructions of a scalar multiply-add per byte, see {@link LegacyCpuBenchmark}.
+ * <p>
+ * Signed bytes are flipped to offset binary ({@code u = x + 128}) first, so that all lanes are
+ * unsigned and never borrow from their neighbours.
+ */
+final class Swar {
+
+  private Swar() {}
+
+  static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /** XOR to turn 8 signed bytes into offset binary. */
+  static final long SIGN_FLIP = 0x8080808080808080L;
+  /** Bytes 0 and 4: one byte in the low end of each 32-bit half. */
+  static final long PAIR = 0x000000FF000000FFL;
+  static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+  static final long ONES_16 = 0x0001000100010001L;
+
+  /** Reads 8 bytes of {@code a} at {@code i}, in offset binary. */
+  static long unsigned(byte[] a, int i) {
+    return (long) LONGS.get(a, i) ^ SIGN_FLIP;
+  }
+
+  /**
+   * Returns the sum over all 8 unsigned bytes of {@code x[k] * y[k]}, where {@code ySwapped} is
+   * {@code y} with its 32-bit halves swapped. For {@code p = x[k] + x[k+4] << 32} and
+   * {@code q = y[k+4] + y[k] << 32}, bits 32..63 of {@code p * q} are {@code x[k]*y[k] + x[k+4]*y[k+4]}:
+   * the low cross term is below 2^16 so it can't carry, the high one overflows away.
+   */
+  static long products(long x, long ySwapped) {
+    return (((x & PAIR) * (ySwapped & PAIR)) >>> 32)
+        + ((((x >>> 8) & PAIR) * ((ySwapped >>> 8) & PAIR)) >>> 32)
+        + ((((x >>> 16) & PAIR) * ((ySwapped >>> 16) & PAIR)) >>> 32)
+        + ((((x >>> 24) & PAIR) * ((ySwapped >>> 24) & PAIR)) >>> 32);
+  }
+
+  /** Returns {@code x} with its 32-bit halves swapped, for {@link #products}. */
+  static long swapped(long x) {
+    return Long.rotateLeft(x, 32);
+  }
+
+  /** Returns the sum of the 8 unsigned bytes of {@code x}. */
+  static long sumBytes(long x) {
+    // add neighbours into 16-bit lanes, then add up the lanes with a multiply
+    return (((x & EVEN_BYTES) + ((x >>> 8) & EVEN_BYTES)) * ONES_16) >>> 48;
+  }
+
+  /** Returns the sum of squared differences of the 8 unsigned bytes of {@code x} and {@code y}. */
+  static long squareDistance(long x, long y) {
+    long even = absDiff16(x & EVEN_BYTES, y & EVEN_BYTES);
+    long odd = absDiff16((x >>> 8) & EVEN_BYTES, (y >>> 8) & EVEN_BYTES);
+    // 16-bit lanes 0 and 2 are 32 bits apart, like lanes 1 and 3: square them two at a time
+    long even2 = even >>> 16;
+    long odd2 = odd >>> 16;
+    return (((even & PAIR) * (swapped(even) & PAIR)) >>> 32)
+        + (((even2 & PAIR) * (swapped(even2) & PAIR)) >>> 32)
+        + (((odd & PAIR) * (swapped(odd) & PAIR)) >>> 32)
+        + (((odd2 & PAIR) * (swapped(odd2) & PAIR)) >>> 32);
+  }
+
+  /** Absolute differences of 4 bytes held in 16-bit lanes. */
+  private static long absDiff16(long x, long y) {
+    // 256 + x - y is in [1, 511], so lanes never borrow; bit 8 is clear iff x < y
+    long diff = (x | 0x0100010001000100L) - y;
+    long negative = (~diff >>> 8) & ONES_16;
+    // two's complement negation of the low byte, in the negative lanes only
+    return ((diff & EVEN_BYTES) ^ (negative * 0xFF)) + negative;
+  }
+
+  /** Returns the bit count of each byte of {@code x}, in that byte. */
+  static long byteBitCounts(long x) {
+    x = x - ((x >>> 1) & 0x5555555555555555L);
+    x = (x & 0x3333333333333333L) + ((x >>> 2) & 0x3333333333333333L);
+    return (x + (x >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
+  }
+}
@@ -0,0 +1,423 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Top-k selection over the output of bulk scoring: the ords of the {@code k} highest
+ * {@code float} scores, or of the {@code k} smallest {@code int} Hamming distances as produced by
+ * {@link BitCountBenchmark}-style kernels. The new way compares a whole vector of candidates
+ * against the current k-th best at once and only touches the heap for the lanes that beat it;
+ * compared against the same primitive bounded heap fed one candidate at a time, and against a
+ * {@link PriorityQueue} of objects. Results are in heap order, not sorted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class TopKBenchmark {
+
+  float[] scores;
+  int[] distances;
+
+  @Param({"10", "100", "1000"})
+  int k;
+
+  @Param({"1000000", "10000000"})
+  int count;
+
+  /**
+   * {@code random}, or {@code ascending}: the worst case, where every candidate enters the heap
+   * and nothing can be rejected in bulk.
+   */
+  @Param({"random"})
+  String order;
+
+  /**
+   * {@code random}: uniform scores, and distances of random 1024-bit codes. {@code clustered}, or
+   * the path of an .fvecs file, see {@link Dataset#forBenchmark}: dot products of a query from the
+   * dataset with its vectors, and Hamming distances of their sign codes, cycling through the
+   * dataset if it has fewer than {@code count} vectors.
+   */
+  @Param({"random"})
+  String data;
+
+  /** Dimension of the dataset's vectors, unused with {@code random}. */
+  @Param({"128"})
+  int size;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    VectorShapes.check(bits);
+    scores = new float[count];
+    distances = new int[count];
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    if (dataset == null) {
+      for (int i = 0; i < count; i++) {
+        scores[i] = ThreadLocalRandom.current().nextFloat();
+        // Hamming distance of two random 1024-bit codes
+        int distance = 0;
+        for (int j = 0; j < 16; j++) {
+          distance += Long.bitCount(ThreadLocalRandom.current().nextLong());
+        }
+        distances[i] = distance;
+      }
+    } else {
+      float[] query = dataset.floats(dataset.randomOrd());
+      int n = Math.min(count, dataset.count());
+      for (int i = 0; i < n; i++) {
+        float[] vector = dataset.floats(i);
+        scores[i] = FloatDotProductBenchmark.dotProduct(query, vector, 0);
+        int distance = 0;
+        for (int j = 0; j < size; j++) {
+          if ((query[j] > 0) != (vector[j] > 0)) {
+            distance++;
+          }
+        }
+        distances[i] = distance;
+      }
+      for (int i = n; i < count; i++) {
+        scores[i] = scores[i % n];
+        distances[i] = distances[i % n];
+      }
+    }
+    if (order.equals("ascending")) {
+      Arrays.sort(scores);
+      Arrays.sort(distances);
+      // ascending distances are the easy case, the worst case is descending
+      for (int i = 0, j = count - 1; i < j; i++, j--) {
+        int tmp = distances[i];
+        distances[i] = distances[j];
+        distances[j] = tmp;
+      }
+    } else if (order.equals("random") == false) {
+      throw new IllegalArgumentException("unknown order: " + order);
+    }
+    // ties may pick different ords, so compare the selected values
+    float[] expectedScores = selectedScores(topFloatsQueue());
+    if (Arrays.equals(expectedScores, selectedScores(topFloatsNew())) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+    if (Arrays.equals(expectedScores, selectedScores(topFloatsHeap())) == false) {
+      throw new RuntimeException("Heap is wrong");
+    }
+    int[] expectedDistances = selectedDistances(topIntsQueue());
+    if (Arrays.equals(expectedDistances, selectedDistances(topIntsNew())) == false) {
+      throw new RuntimeException("New is wrong");
+    }
+    if (Arrays.equals(expectedDistances, selectedDistances(topIntsHeap())) == false) {
+      throw new RuntimeException("Heap is wrong");
+    }
+  }
+
+  private float[] selectedScores(int[] ords) {
+    float[] selected = new float[ords.length];
+    for (int i = 0; i < ords.length; i++) {
+      selected[i] = scores[ords[i]];
+    }
+    Arrays.sort(selected);
+    return selected;
+  }
+
+  private int[] selectedDistances(int[] ords) {
+    int[] selected = new int[ords.length];
+    for (int i = 0; i < ords.length; i++) {
+      selected[i] = distances[ords[i]];
+    }
+    Arrays.sort(selected);
+    return selected;
+  }
+
+  static final VectorSpecies<Float> FLOAT_SPECIES = VectorShapes.FLOAT;
+  static final VectorSpecies<Integer> INT_SPECIES = VectorShapes.INT;
+
+  @Benchmark
+  public int[] topFloatsNew() {
+    return topFloats(scores, k);
+  }
+
+  @Benchmark
+  public int[] topFloatsHeap() {
+    return topFloatsScalar(scores, k);
+  }
+
+  @Benchmark
+  public int[] topFloatsQueue() {
+    return topFloatsQueue(scores, k);
+  }
+
+  @Benchmark
+  public int[] topIntsNew() {
+    return topInts(distances, k);
+  }
+
+  @Benchmark
+  public int[] topIntsHeap() {
+    return topIntsScalar(distances, k);
+  }
+
+  @Benchmark
+  public int[] topIntsQueue() {
+    return topIntsQueue(distances, k);
+  }
+
+  /** Returns the ords of the {@code k} highest scores, rejecting candidates a vector at a time. */
+  static int[] topFloats(float[] scores, int k) {
+    int size = Math.min(k, scores.length);
+    float[] heap = new float[size];
+    int[] ords = new int[size];
+    int i = 0;
+    for (; i < size; i++) {
+      heap[i] = scores[i];
+      ords[i] = i;
+      siftUp(heap, ords, i);
+    }
+    if (size == 0) {
+      return ords;
+    }
+    // the heap is full: from here on only candidates above the k-th best score get in
+    float threshold = heap[0];
+    int upperBound = i + FLOAT_SPECIES.loopBound(scores.length - i);
+    for (; i < upperBound; i += FLOAT_SPECIES.length()) {
+      FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, scores, i);
+      VectorMask<Float> m = v.compare(VectorOperators.GT, threshold);
+      if (m.anyTrue()) {
+        long bits = m.toLong();
+        do {
+          int ord = i + Long.numberOfTrailingZeros(bits);
+          // the threshold rises as lanes get in, so check each again
+          float score = scores[ord];
+          if (score > heap[0]) {
+            heap[0] = score;
+            ords[0] = ord;
+            siftDown(heap, ords, size, 0);
+          }
+          bits &= bits - 1;
+        } while (bits != 0);
+        threshold = heap[0];
+      }
+    }
+    for (; i < scores.length; i++) {
+      float score = scores[i];
+      if (score > heap[0]) {
+        heap[0] = score;
+        ords[0] = i;
+        siftDown(heap, ords, size, 0);
+      }
+    }
+    return ords;
+  }
+
+  /** Returns the ords of the {@code k} highest scores, with the same heap as {@link #topFloats}. */
+  static int[] topFloatsScalar(float[] scores, int k) {
+    int size = Math.min(k, scores.length);
+    float[] heap = new float[size];
+    int[] ords = new int[size];
+    int i = 0;
+    for (; i < size; i++) {
+      heap[i] = scores[i];
+      ords[i] = i;
+      siftUp(heap, ords, i);
+    }
+    for (; i < scores.length; i++) {
+      float score = scores[i];
+      if (score > heap[0]) {
+        heap[0] = score;
+        ords[0] = i;
+        siftDown(heap, ords, size, 0);
+      }
+    }
+    return ords;
+  }
+
+  /** Returns the ords of the {@code k} highest scores, with a {@link PriorityQueue}. */
+  static int[] topFloatsQueue(float[] scores, int k) {
+    PriorityQueue<ScoredOrd> queue = new PriorityQueue<>(k, (x, y) -> Float.compare(x.score, y.score));
+    for (int i = 0; i < scores.length; i++) {
+      if (queue.size() < k) {
+        queue.offer(new ScoredOrd(i, scores[i]));
+      } else if (scores[i] > queue.peek().score) {
+        queue.poll();
+        queue.offer(new ScoredOrd(i, scores[i]));
+      }
+    }
+    return queue.stream().mapToInt(ScoredOrd::ord).toArray();
+  }
+
+  record ScoredOrd(int ord, float score) {}
+
+  // min-heap on the score: the root is the k-th best so far
+
+  private static void siftUp(float[] heap, int[] ords, int i) {
+    float score = heap[i];
+    int ord = ords[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (heap[parent] <= score) {
+        break;
+      }
+      heap[i] = heap[parent];
+      ords[i] = ords[parent];
+      i = parent;
+    }
+    heap[i] = score;
+    ords[i] = ord;
+  }
+
+  private static void siftDown(float[] heap, int[] ords, int size, int i) {
+    float score = heap[i];
+    int ord = ords[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      if (child + 1 < size && heap[child + 1] < heap[child]) {
+        child++;
+      }
+      if (heap[child] >= score) {
+        break;
+      }
+      heap[i] = heap[child];
+      ords[i] = ords[child];
+      i = child;
+    }
+    heap[i] = score;
+    ords[i] = ord;
+  }
+
+  /** Returns the ords of the {@code k} smallest distances, rejecting candidates a vector at a time. */
+  static int[] topInts(int[] distances, int k) {
+    int size = Math.min(k, distances.length);
+    int[] heap = new int[size];
+    int[] ords = new int[size];
+    int i = 0;
+    for (; i < size; i++) {
+      heap[i] = distances[i];
+      ords[i] = i;
+      siftUp(heap, ords, i);
+    }
+    if (size == 0) {
+      return ords;
+    }
+    // the heap is full: from here on only candidates below the k-th best distance get in
+    int threshold = heap[0];
+    int upperBound = i + INT_SPECIES.loopBound(distances.length - i);
+    for (; i < upperBound; i += INT_SPECIES.length()) {
+      IntVector v = IntVector.fromArray(INT_SPECIES, distances, i);
+      VectorMask<Integer> m = v.compare(VectorOperators.LT, threshold);
+      if (m.anyTrue()) {
+        long bits = m.toLong();
+        do {
+          int ord = i + Long.numberOfTrailingZeros(bits);
+          // the threshold falls as lanes get in, so check each again
+          int distance = distances[ord];
+          if (distance < heap[0]) {
+            heap[0] = distance;
+            ords[0] = ord;
+            siftDown(heap, ords, size, 0);
+          }
+          bits &= bits - 1;
+        } while (bits != 0);
+        threshold = heap[0];
+      }
+    }
+    for (; i < distances.length; i++) {
+      int distance = distances[i];
+      if (distance < heap[0]) {
+        heap[0] = distance;
+        ords[0] = i;
+        siftDown(heap, ords, size, 0);
+      }
+    }
+    return ords;
+  }
+
+  /** Returns the ords of the {@code k} smallest distances, with the same heap as {@link #topInts}. */
+  static int[] topIntsScalar(int[] distances, int k) {
+    int size = Math.min(k, distances.length);
+    int[] heap = new int[size];
+    int[] ords = new int[size];
+    int i = 0;
+    for (; i < size; i++) {
+      heap[i] = distances[i];
+      ords[i] = i;
+      siftUp(heap, ords, i);
+    }
+    for (; i < distances.length; i++) {
+      int distance = distances[i];
+      if (distance < heap[0]) {
+        heap[0] = distance;
+        ords[0] = i;
+        siftDown(heap, ords, size, 0);
+      }
+    }
+    return ords;
+  }
+
+  /** Returns the ords of the {@code k} smallest distances, with a {@link PriorityQueue}. */
+  static int[] topIntsQueue(int[] distances, int k) {
+    PriorityQueue<DistancedOrd> queue = new PriorityQueue<>(k, (x, y) -> Integer.compare(y.distance, x.distance));
+    for (int i = 0; i < distances.length; i++) {
+      if (queue.size() < k) {
+        queue.offer(new DistancedOrd(i, distances[i]));
+      } else if (distances[i] < queue.peek().distance) {
+        queue.poll();
+        queue.offer(new DistancedOrd(i, distances[i]));
+      }
+    }
+    return queue.stream().mapToInt(DistancedOrd::ord).toArray();
+  }
+
+  record DistancedOrd(int ord, int distance) {}
+
+  // max-heap on the distance: the root is the k-th best so far
+
+  private static void siftUp(int[] heap, int[] ords, int i) {
+    int distance = heap[i];
+    int ord = ords[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (heap[parent] >= distance) {
+        break;
+      }
+      heap[i] = heap[parent];
+      ords[i] = ords[parent];
+      i = parent;
+    }
+    heap[i] = distance;
+    ords[i] = ord;
+  }
+
+  private static void siftDown(int[] heap, int[] ords, int size, int i) {
+    int distance = heap[i];
+    int ord = ords[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      if (child + 1 < size && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= distance) {
+        break;
+      }
+      heap[i] = heap[child];
+      ords[i] = ords[child];
+      i = child;
+    }
+    heap[i] = distance;
+    ords[i] = ord;
+  }
+}
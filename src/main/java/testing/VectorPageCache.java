@@ -0,0 +1,267 @@
+package testing;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size off-heap cache of the pages of an {@code .fvecs} file, for corpora larger than the
+ * memory the JVM may use: page {@code p} holds the records of vectors
+ * {@code p * vectorsPerPage} to {@code (p + 1) * vectorsPerPage - 1}, headers included, and is
+ * read with a positional read into one of {@code frames} direct buffers, allocated once.
+ * <p>
+ * Lookups are lock-free: the page table maps pages to frames, and a reader pins the frame by
+ * incrementing its pin count, then checks the frame still holds its page. Misses take one of
+ * {@link #STRIPES} locks, by page, so a page is only read once however many threads miss it, and
+ * pick a victim with CLOCK: a hand sweeps the frames, giving every referenced one a second chance
+ * and taking the first unreferenced one whose pin count it can swap from 0 to {@link #EVICTING},
+ * which readers can't pin. Frames only pinned for a moment, so a sweep that finds all frames
+ * pinned spins until one is released.
+ * <p>
+ * The incubating Vector API can't load from a {@code ByteBuffer}, and {@code MemorySegment} is
+ * still a preview API at source 20, so the vectorized kernels can't score a frame in place:
+ * {@link #copy} copies a pinned page out into a scratch array for them, and the pin lasts for a
+ * memcpy, not for the scoring. Scalar code can read a page where it is instead, through
+ * {@link #pin}, {@link #floats} and {@link #unpin}, holding the pin for as long as it reads.
+ */
+public final class VectorPageCache implements Closeable {
+
+  static final int STRIPES = 64;
+  /** Pin count of a frame being evicted and refilled. */
+  static final int EVICTING = -1;
+  private static final int NONE = -1;
+
+  private final FileChannel channel;
+  private final int dimension;
+  private final int count;
+  private final int vectorsPerPage;
+  private final int recordSize;
+  private final int pageCount;
+
+  private final ByteBuffer[] frames;
+  private final FloatBuffer[] frameFloats;
+  /** Frame of each page, or {@link #NONE}. */
+  private final AtomicIntegerArray pageFrames;
+  /** Page of each frame, or {@link #NONE}. */
+  private final AtomicIntegerArray framePages;
+  private final AtomicIntegerArray pins;
+  /** CLOCK reference bits. */
+  private final AtomicIntegerArray referenced;
+  private final AtomicInteger hand = new AtomicInteger();
+  private final Object[] locks = new Object[STRIPES];
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** Opens {@code path}, an {@code .fvecs} file, with room for {@code frames} pages of {@code vectorsPerPage} vectors. */
+  public VectorPageCache(Path path, int vectorsPerPage, int frames) throws IOException {
+    if (vectorsPerPage <= 0 || frames <= 0) {
+      throw new IllegalArgumentException("invalid cache configuration: vectorsPerPage=" + vectorsPerPage + " frames=" + frames);
+    }
+    if (Dataset.Format.forPath(path) != Dataset.Format.FVECS) {
+      throw new IllegalArgumentException("not an .fvecs file: " + path);
+    }
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      if (channel.read(header, 0) != Integer.BYTES || header.getInt(0) <= 0) {
+        throw new IllegalArgumentException("invalid vector file: " + path);
+      }
+      this.dimension = header.getInt(0);
+      this.recordSize = Integer.BYTES + dimension * Float.BYTES;
+      long length = channel.size();
+      if (length % recordSize != 0 || length / recordSize > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("truncated or too large vector file: " + path + " has " + length + " bytes");
+      }
+      if ((long) vectorsPerPage * recordSize > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("pages of " + vectorsPerPage + " vectors are larger than 2GB");
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    this.count = (int) (channel.size() / recordSize);
+    this.vectorsPerPage = vectorsPerPage;
+    this.pageCount = (count + vectorsPerPage - 1) / vectorsPerPage;
+    this.frames = new ByteBuffer[frames];
+    this.frameFloats = new FloatBuffer[frames];
+    for (int i = 0; i < frames; i++) {
+      this.frames[i] = ByteBuffer.allocateDirect(vectorsPerPage * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+      this.frameFloats[i] = this.frames[i].asFloatBuffer();
+    }
+    this.pageFrames = new AtomicIntegerArray(pageCount);
+    for (int i = 0; i < pageCount; i++) {
+      pageFrames.set(i, NONE);
+    }
+    this.framePages = new AtomicIntegerArray(frames);
+    for (int i = 0; i < frames; i++) {
+      framePages.set(i, NONE);
+    }
+    this.pins = new AtomicIntegerArray(frames);
+    this.referenced = new AtomicIntegerArray(frames);
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  public int dimension() {
+    return dimension;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public int vectorsPerPage() {
+    return vectorsPerPage;
+  }
+
+  public int pageCount() {
+    return pageCount;
+  }
+
+  /** Number of vectors in {@code page}: {@link #vectorsPerPage}, except maybe for the last page. */
+  public int vectors(int page) {
+    return Math.min(vectorsPerPage, count - page * vectorsPerPage);
+  }
+
+  /** Floats of a page's records, headers included, so {@link #copy} needs a scratch array of at least this. */
+  public int pageFloats() {
+    return vectorsPerPage * recordSize / Float.BYTES;
+  }
+
+  /**
+   * Copies the records of {@code page} into {@code scratch}: the values of its vector {@code i}
+   * start at {@code i * (dimension + 1) + 1}, after the header. Reads the page on a miss.
+   */
+  public void copy(int page, float[] scratch) {
+    int frame = pin(page);
+    try {
+      frameFloats[frame].get(0, scratch, 0, vectors(page) * (dimension + 1));
+    } finally {
+      unpin(frame);
+    }
+  }
+
+  /** Returns the frame holding {@code page}, pinned: it won't be evicted until {@link #unpin}. */
+  int pin(int page) {
+    if (page < 0 || page >= pageCount) {
+      throw new IndexOutOfBoundsException("page " + page + " out of bounds for " + pageCount + " pages");
+    }
+    while (true) {
+      int frame = pageFrames.get(page);
+      if (frame != NONE) {
+        if (tryPin(frame)) {
+          // the frame may have been evicted, and even refilled, between the lookup and the pin
+          if (framePages.get(frame) == page) {
+            referenced.set(frame, 1);
+            hits.increment();
+            return frame;
+          }
+          unpin(frame);
+        }
+        Thread.onSpinWait();
+        continue;
+      }
+      synchronized (locks[page % STRIPES]) {
+        if (pageFrames.get(page) == NONE) {
+          misses.increment();
+          return load(page);
+        }
+      }
+    }
+  }
+
+  /**
+   * The records of the page in {@code frame}, laid out as by {@link #copy}: only valid while the
+   * frame is pinned, and only for absolute gets, as every reader shares the buffer.
+   */
+  FloatBuffer floats(int frame) {
+    return frameFloats[frame];
+  }
+
+  void unpin(int frame) {
+    pins.decrementAndGet(frame);
+  }
+
+  private boolean tryPin(int frame) {
+    int pinned;
+    while ((pinned = pins.get(frame)) != EVICTING) {
+      if (pins.compareAndSet(frame, pinned, pinned + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Reads {@code page} into a victim frame, returned pinned. Called with the page's stripe locked. */
+  private int load(int page) {
+    int frame = victim();
+    int evicted = framePages.get(frame);
+    if (evicted != NONE) {
+      pageFrames.compareAndSet(evicted, frame, NONE);
+    }
+    framePages.set(frame, NONE);
+    ByteBuffer buffer = frames[frame].clear();
+    buffer.limit(vectors(page) * recordSize);
+    try {
+      long position = (long) page * vectorsPerPage * recordSize;
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException("page " + page + " past the end of the file");
+        }
+      }
+    } catch (IOException e) {
+      pins.set(frame, 0);
+      throw new UncheckedIOException(e);
+    }
+    framePages.set(frame, page);
+    referenced.set(frame, 1);
+    // pinned for the caller, and visible to readers, only once it's filled
+    pins.set(frame, 1);
+    pageFrames.set(page, frame);
+    return frame;
+  }
+
+  /** Sweeps the CLOCK hand to an unreferenced, unpinned frame, and marks it {@link #EVICTING}. */
+  private int victim() {
+    while (true) {
+      int frame = Math.floorMod(hand.getAndIncrement(), frames.length);
+      if (referenced.get(frame) == 1) {
+        referenced.set(frame, 0);
+      } else if (pins.compareAndSet(frame, 0, EVICTING)) {
+        return frame;
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /** Fraction of {@link #pin} calls since the last {@link #resetStats} that found their page cached. */
+  public double hitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? Double.NaN : (double) h / total;
+  }
+
+  public void resetStats() {
+    hits.reset();
+    misses.reset();
+  }
+
+  /** Closes the file: the frames are freed with the cache, by the garbage collector. */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
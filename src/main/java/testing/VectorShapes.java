@@ -0,0 +1,60 @@
+package testing;
+
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vector shape of all kernels. It is the preferred shape unless the {@code vectorbench.bits}
+ * system property selects 64, 128, 256 or 512 bits, e.g. 256-bit vectors on an AVX-512 machine,
+ * to see if they avoid the frequency drop that comes with 512-bit instructions. The species are
+ * static finals, fixed for the life of the JVM, as C2 only compiles Vector API calls to vector
+ * instructions when the species is a constant: a species passed as an argument is several times
+ * slower.
+ * <p>
+ * Every benchmark has a {@code bits} param, which {@link #check} compares with the property of
+ * the JMH fork: {@link ShapeSweep} runs the benchmarks once per {@code bits} value, each with the
+ * matching property.
+ */
+final class VectorShapes {
+
+  static final String PROPERTY = "vectorbench.bits";
+
+  /** The {@code bits} param value for whatever shape the JVM was started with. */
+  static final String PREFERRED = "preferred";
+
+  static final int BITS = bits(System.getProperty(PROPERTY, PREFERRED));
+  static final VectorShape SHAPE = VectorShape.forBitSize(BITS);
+
+  static final VectorSpecies<Float> FLOAT = VectorSpecies.of(float.class, SHAPE);
+  static final VectorSpecies<Integer> INT = VectorSpecies.of(int.class, SHAPE);
+  static final VectorSpecies<Long> LONG = VectorSpecies.of(long.class, SHAPE);
+
+  private VectorShapes() {}
+
+  /** Parses a bit size, rejecting shapes wider than the preferred one: the JIT doesn't compile those to vector instructions. */
+  static int bits(String value) {
+    int preferred = VectorShape.preferredShape().vectorBitSize();
+    if (value.equals(PREFERRED)) {
+      return preferred;
+    }
+    int bits = Integer.parseInt(value);
+    if (bits != 64 && bits != 128 && bits != 256 && bits != 512) {
+      throw new IllegalArgumentException("vector bits must be 64, 128, 256 or 512: " + value);
+    }
+    if (bits > preferred) {
+      throw new IllegalArgumentException(bits + "-bit vectors are wider than this CPU's " + preferred + "-bit ones");
+    }
+    return bits;
+  }
+
+  /**
+   * Fails unless the kernels run with {@code bits}, a benchmark's param: {@link #PREFERRED} or
+   * {@code null}, as in benchmarks created by other benchmarks, accepts any shape.
+   */
+  static void check(String bits) {
+    if (bits != null && bits.equals(PREFERRED) == false && bits(bits) != BITS) {
+      throw new IllegalStateException("bits=" + bits + " but the kernels use " + BITS + "-bit vectors: run through "
+          + ShapeSweep.class.getName() + ", or with -jvmArgsAppend -D" + PROPERTY + "=" + bits);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package testing;
+
+/**
+ * The similarity kernels, behind an interface so that callers don't depend on the incubating
+ * Vector API: {@link VectorizationProvider#get()} returns the Panama implementation when the JVM
+ * can run it, the scalar {@link DefaultVectorUtilSupport} otherwise. Compiled for Java 11, see
+ * the {@code pom.xml}.
+ */
+interface VectorUtilSupport {
+
+  /** Returns the dot product of two float vectors of the same dimension. */
+  float dotProduct(float[] a, float[] b);
+
+  /** Returns the sum of squared differences of two float vectors of the same dimension. */
+  float squareDistance(float[] a, float[] b);
+
+  /** Returns the cosine similarity of two float vectors of the same dimension. */
+  float cosine(float[] a, float[] b);
+
+  /** Returns the dot product of two byte vectors of the same dimension. */
+  int dotProduct(byte[] a, byte[] b);
+
+  /** Returns the sum of squared differences of two byte vectors of the same dimension. */
+  int squareDistance(byte[] a, byte[] b);
+
+  /** Returns the cosine similarity of two byte vectors of the same dimension. */
+  float cosine(byte[] a, byte[] b);
+}
@@ -0,0 +1,131 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The kernels as callers get them, through {@link VectorUtilSupport}: {@code impl=default} is
+ * the scalar baseline, {@code impl=provider} whatever {@link VectorizationProvider} picked for the
+ * fork, which is the Panama implementation when the fork has the Vector API module. Both call the
+ * static kernels of the {@code *Old} and {@code *New} benchmarks. The same benchmarks in a fork
+ * without the module are {@link VectorUtilSupportFallbackBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsPrepend = {"--add-modules=jdk.incubator.vector"})
+public class VectorUtilSupportBenchmark {
+
+  float[] a;
+  float[] b;
+  byte[] c;
+  byte[] d;
+  VectorUtilSupport support;
+
+  @Param({"1", "128", "207", "702", "1024"})
+  int size;
+
+  /**
+   * {@code random}, {@code clustered}, or the path of an .fvecs file: see {@link Dataset#forBenchmark}.
+   * The byte kernels score the same vectors, quantized to int8.
+   */
+  @Param({"random"})
+  String data;
+
+  /** {@code default} or {@code provider}. */
+  @Param({"default", "provider"})
+  String impl;
+
+  /** Bits of the kernels' vectors: {@code preferred}, 64, 128, 256 or 512, see {@link VectorShapes}. */
+  @Param({"preferred"})
+  String bits;
+
+  @Setup(Level.Trial)
+  public void init() {
+    Dataset dataset = Dataset.forBenchmark(data, Dataset.Format.FVECS, size);
+    c = new byte[size];
+    d = new byte[size];
+    if (dataset == null) {
+      a = new float[size];
+      b = new float[size];
+      for (int i = 0; i < size; ++i) {
+        a[i] = ThreadLocalRandom.current().nextFloat();
+        b[i] = ThreadLocalRandom.current().nextFloat();
+      }
+      ThreadLocalRandom.current().nextBytes(c);
+      ThreadLocalRandom.current().nextBytes(d);
+    } else {
+      a = dataset.floats(dataset.randomOrd());
+      b = dataset.floats(dataset.randomOrd());
+      quantize(a, c);
+      quantize(b, d);
+    }
+    switch (impl) {
+      case "default": support = new DefaultVectorUtilSupport(); break;
+      case "provider": support = VectorizationProvider.get(); break;
+      default: throw new IllegalArgumentException("impl must be default or provider: " + impl);
+    }
+    // only the Panama kernels have a shape, and without the module VectorShapes can't even load
+    if (support instanceof DefaultVectorUtilSupport == false) {
+      VectorShapes.check(bits);
+    }
+    DefaultVectorUtilSupport scalar = new DefaultVectorUtilSupport();
+    if (support.dotProduct(c, d) != scalar.dotProduct(c, d) || support.squareDistance(c, d) != scalar.squareDistance(c, d)) {
+      throw new RuntimeException("New is wrong");
+    }
+    // order of ops may change, but try to detect broken shit
+    float expected = scalar.squareDistance(a, b);
+    if (Math.abs(expected - support.squareDistance(a, b)) > 0.001f * Math.max(1f, Math.abs(expected))) {
+      throw new RuntimeException("probably wrong");
+    }
+  }
+
+  /**
+   * Quantizes {@code v} into {@code dest}, its largest magnitude to 127. Not with
+   * {@link MixedDotProductBenchmark#quantize}, which would load the Vector API in forks without it.
+   */
+  static void quantize(float[] v, byte[] dest) {
+    float max = 0;
+    for (float x : v) {
+      max = Math.max(max, Math.abs(x));
+    }
+    float scale = max == 0 ? 0 : 127 / max;
+    for (int i = 0; i < v.length; i++) {
+      dest[i] = (byte) Math.round(v[i] * scale);
+    }
+  }
+
+  @Benchmark
+  public float dotProduct() {
+    return support.dotProduct(a, b);
+  }
+
+  @Benchmark
+  public float squareDistance() {
+    return support.squareDistance(a, b);
+  }
+
+  @Benchmark
+  public float cosine() {
+    return support.cosine(a, b);
+  }
+
+  @Benchmark
+  public int binaryDotProduct() {
+    return support.dotProduct(c, d);
+  }
+
+  @Benchmark
+  public int binarySquareDistance() {
+    return support.squareDistance(c, d);
+  }
+
+  @Benchmark
+  public float binaryCosine() {
+    return support.cosine(c, d);
+  }
+}
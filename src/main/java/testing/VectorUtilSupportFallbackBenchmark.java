@@ -0,0 +1,14 @@
+package testing;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link VectorUtilSupportBenchmark} in a fork without the Vector API module, as a service started
+ * without {@code --add-modules=jdk.incubator.vector} runs: {@code impl=provider} warns on stderr,
+ * and picks the scalar kernels. Forks inherit the flags of the JVM that runs JMH, so start that
+ * one without the module too, e.g.
+ * {@code java -jar target/vectorbench.jar VectorUtilSupportFallbackBenchmark}.
+ */
+@Fork(value = 1, jvmArgsPrepend = {})
+public class VectorUtilSupportFallbackBenchmark extends VectorUtilSupportBenchmark {
+}
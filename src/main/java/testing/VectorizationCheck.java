@@ -0,0 +1,78 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the kernels {@link VectorizationProvider} picks on this JVM against the scalar ones, over
+ * sizes around every vector width, and exits with status 1 on any difference, or if the provider
+ * didn't pick the expected implementation. Compiled for Java 11, so both paths can be checked on
+ * whatever JDKs are at hand:
+ * <pre>
+ * java --add-modules=jdk.incubator.vector -cp target/vectorbench.jar testing.VectorizationCheck panama
+ * java -cp target/vectorbench.jar testing.VectorizationCheck default
+ * </pre>
+ */
+public class VectorizationCheck {
+
+  static final int[] SIZES = { 1, 4, 6, 8, 13, 16, 25, 32, 64, 100, 128, 207, 256, 300, 512, 702, 1024 };
+  static final int ITERATIONS = 100;
+
+  public static void main(String[] args) {
+    VectorUtilSupport support = VectorizationProvider.get();
+    String impl = support instanceof DefaultVectorUtilSupport ? "default" : "panama";
+    System.out.println("Java " + Runtime.version() + ": " + impl + " (" + support.getClass().getName() + ")");
+
+    List<String> failures = new ArrayList<>();
+    if (args.length > 0 && args[0].equals(impl) == false) {
+      failures.add("expected " + args[0] + " kernels");
+    }
+    VectorUtilSupport scalar = new DefaultVectorUtilSupport();
+    Random random = new Random(42);
+    for (int size : SIZES) {
+      for (int iter = 0; iter < ITERATIONS; iter++) {
+        float[] a = new float[size];
+        float[] b = new float[size];
+        byte[] c = new byte[size];
+        byte[] d = new byte[size];
+        for (int i = 0; i < size; i++) {
+          a[i] = random.nextFloat();
+          b[i] = random.nextFloat();
+        }
+        random.nextBytes(c);
+        random.nextBytes(d);
+        check(failures, "dotProduct(float[])", size, scalar.dotProduct(a, b), support.dotProduct(a, b));
+        check(failures, "squareDistance(float[])", size, scalar.squareDistance(a, b), support.squareDistance(a, b));
+        check(failures, "cosine(float[])", size, scalar.cosine(a, b), support.cosine(a, b));
+        check(failures, "dotProduct(byte[])", size, scalar.dotProduct(c, d), support.dotProduct(c, d));
+        check(failures, "squareDistance(byte[])", size, scalar.squareDistance(c, d), support.squareDistance(c, d));
+        // exact: both compute the same ints, then the same division
+        check(failures, "cosine(byte[])", size, scalar.cosine(c, d), support.cosine(c, d), 0);
+      }
+    }
+
+    if (failures.isEmpty() == false) {
+      failures.stream().distinct().forEach(failure -> System.out.println("FAILED: " + failure));
+      System.exit(1);
+    }
+    System.out.println("OK: " + SIZES.length + " sizes, " + ITERATIONS + " vectors each");
+  }
+
+  /** Floats may differ by the order of the additions, so within a relative 1e-5. */
+  private static void check(List<String> failures, String kernel, int size, float expected, float actual) {
+    check(failures, kernel, size, expected, actual, 1e-5f * Math.max(1, Math.abs(expected)));
+  }
+
+  private static void check(List<String> failures, String kernel, int size, float expected, float actual, float delta) {
+    if (Math.abs(expected - actual) > delta || Float.isNaN(expected) != Float.isNaN(actual)) {
+      failures.add(kernel + " size=" + size + ": expected " + expected + " but got " + actual);
+    }
+  }
+
+  private static void check(List<String> failures, String kernel, int size, int expected, int actual) {
+    if (expected != actual) {
+      failures.add(kernel + " size=" + size + ": expected " + expected + " but got " + actual);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package testing;
+
+/**
+ * Picks the {@link VectorUtilSupport} once per JVM: {@code PanamaVectorUtilSupport}, from the
+ * jar's {@code META-INF/versions/20}, when the JVM is at least Java 20 and was started with
+ * {@code --add-modules=jdk.incubator.vector}, otherwise {@link DefaultVectorUtilSupport}, after
+ * saying why on stderr. Nothing here refers to the Panama class or the Vector API directly, so
+ * this class loads, and the scalar kernels run, on any JVM from Java 11 on.
+ */
+final class VectorizationProvider {
+
+  static final String PANAMA = "testing.PanamaVectorUtilSupport";
+  static final String VECTOR_MODULE = "jdk.incubator.vector";
+  static final int PANAMA_FEATURE = 20;
+
+  private static final VectorUtilSupport INSTANCE = lookup();
+
+  private VectorizationProvider() {}
+
+  /** Returns the kernels this JVM runs. */
+  static VectorUtilSupport get() {
+    return INSTANCE;
+  }
+
+  private static VectorUtilSupport lookup() {
+    int feature = Runtime.version().feature();
+    if (feature < PANAMA_FEATURE) {
+      return fallback("Java " + feature + " is older than Java " + PANAMA_FEATURE);
+    }
+    if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+      return fallback(VECTOR_MODULE + " is not in the boot layer, start the JVM with --add-modules=" + VECTOR_MODULE);
+    }
+    try {
+      return (VectorUtilSupport) Class.forName(PANAMA).getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      // the class is only in META-INF/versions/20, and only a multi-release jar looks there
+      return fallback(PANAMA + " is not on the classpath, run from target/vectorbench.jar");
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return fallback("loading " + PANAMA + " failed: " + e);
+    }
+  }
+
+  private static VectorUtilSupport fallback(String reason) {
+    System.err.println("WARNING: using the scalar kernels: " + reason);
+    return new DefaultVectorUtilSupport();
+  }
+}
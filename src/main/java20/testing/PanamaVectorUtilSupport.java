@@ -0,0 +1,42 @@
+package testing;
+
+/**
+ * The vectorized kernels: the static kernels behind the benchmarks' {@code *New} methods, so the
+ * benchmarks measure what callers of this class run. Compiled for Java 20 into the jar's
+ * {@code META-INF/versions/20}, and only loaded, reflectively, by {@link VectorizationProvider}.
+ */
+final class PanamaVectorUtilSupport implements VectorUtilSupport {
+
+  @Override
+  public float dotProduct(float[] a, float[] b) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException("vector dimensions differ: " + a.length + "!=" + b.length);
+    }
+    return FloatDotProductBenchmark.dotProduct(a, b, 0);
+  }
+
+  @Override
+  public float squareDistance(float[] a, float[] b) {
+    return FloatSquareBenchmark.squareDistance(a, b);
+  }
+
+  @Override
+  public float cosine(float[] a, float[] b) {
+    return FloatCosineBenchmark.cosine(a, b);
+  }
+
+  @Override
+  public int dotProduct(byte[] a, byte[] b) {
+    return BinaryDotProductBenchmark.dotProduct(a, b);
+  }
+
+  @Override
+  public int squareDistance(byte[] a, byte[] b) {
+    return BinarySquareBenchmark.squareDistance(a, b);
+  }
+
+  @Override
+  public float cosine(byte[] a, byte[] b) {
+    return BinaryCosineBenchmark.cosine(a, b);
+  }
+}